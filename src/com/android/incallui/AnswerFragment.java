@@ -26,6 +26,7 @@ import android.text.TextWatcher;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
 import android.view.WindowManager;
 import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
@@ -73,6 +74,8 @@ public class AnswerFragment extends BaseFragment<AnswerPresenter, AnswerPresente
     private final List<String> mSmsResponses = new ArrayList<>();
 
     private GlowPadWrapper mGlowpad;
+    /** Whether a pre-draw listener is waiting to record the answer UI milestone. */
+    private boolean mIsAnswerUiDrawTrackingPending;
 
     public AnswerFragment() {
     }
@@ -107,6 +110,8 @@ public class AnswerFragment extends BaseFragment<AnswerPresenter, AnswerPresente
             mGlowpad.stopPing();
             mGlowpad = null;
         }
+        // The listener went away with the view.
+        mIsAnswerUiDrawTrackingPending = false;
         super.onDestroyView();
     }
 
@@ -117,11 +122,36 @@ public class AnswerFragment extends BaseFragment<AnswerPresenter, AnswerPresente
         Log.d(this, "Show answer UI: " + show);
         if (show) {
             mGlowpad.startPing();
+            trackNextDraw();
         } else {
             mGlowpad.stopPing();
         }
     }
 
+    /**
+     * Records the answer UI milestone for the incoming call when the GlowPad is next drawn.
+     */
+    private void trackNextDraw() {
+        if (mIsAnswerUiDrawTrackingPending) {
+            return;
+        }
+        mIsAnswerUiDrawTrackingPending = true;
+        final ViewTreeObserver observer = mGlowpad.getViewTreeObserver();
+        observer.addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                if (observer.isAlive()) {
+                    observer.removeOnPreDrawListener(this);
+                }
+                mIsAnswerUiDrawTrackingPending = false;
+                CallLatencyTracker.getInstance().onMilestone(
+                        CallList.getInstance().getIncomingCall(),
+                        CallLatencyTracker.MILESTONE_INCOMING_ANSWER_UI_DRAWN);
+                return true;
+            }
+        });
+    }
+
     /**
      * Sets targets on the glowpad according to target set identified by the parameter.
      * @param targetSet Integer identifying the set of targets to use.
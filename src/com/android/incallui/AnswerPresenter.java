@@ -22,6 +22,7 @@ import android.content.Context;
 import android.os.SystemProperties;
 import android.telecom.VideoProfile;
 
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -33,10 +34,20 @@ public class AnswerPresenter extends Presenter<AnswerPresenter.AnswerUi>
 
     private static final String TAG = AnswerPresenter.class.getSimpleName();
 
-    private String mCallId[] = new String[CallList.PHONE_COUNT];
+    // The answer UI only depends on the call leaving the incoming state, its canned text
+    // responses and pending video upgrade requests.
+    private static final int CALL_UPDATE_MASK = Call.Changes.STATE
+            | Call.Changes.CANNED_RESPONSES | Call.Changes.SESSION_MODIFICATION;
+
+    /** Numeric id of the call shown for each phone, see {@link Call#getNumericId()}. */
+    private int mCallId[] = new int[CallList.PHONE_COUNT];
     private Call mCall[] = new Call[CallList.PHONE_COUNT];
     private boolean mHasTextMessages = false;
 
+    public AnswerPresenter() {
+        Arrays.fill(mCallId, Call.INVALID_ID);
+    }
+
     @Override
     public void onUiReady(AnswerUi ui) {
         Log.d(this, "onUiReady ui=" + ui);
@@ -74,7 +85,7 @@ public class AnswerPresenter extends Presenter<AnswerPresenter.AnswerUi>
         // This is necessary because the activity can be destroyed while an incoming call exists.
         // This happens when back button is pressed while incoming call is still being shown.
         for (int i = 0; i < CallList.PHONE_COUNT; i++) {
-            if (mCallId[i] != null) {
+            if (mCallId[i] != Call.INVALID_ID) {
                 CallList.getInstance().removeCallUpdateListener(mCallId[i], this);
             }
         }
@@ -108,7 +119,7 @@ public class AnswerPresenter extends Presenter<AnswerPresenter.AnswerUi>
                 CallList.getInstance().removeCallUpdateListener(mCallId[modifyPhoneId], this);
                 InCallPresenter.getInstance().declineUpgradeRequest(getUi().getContext());
             }
-            if (!call.getId().equals(mCallId[phoneId])) {
+            if (call.getNumericId() != mCallId[phoneId]) {
                 // A new call is coming in.
                 processIncomingCall(call);
             }
@@ -146,14 +157,15 @@ public class AnswerPresenter extends Presenter<AnswerPresenter.AnswerUi>
     private void processIncomingCall(Call call) {
         int subId = call.getSubId();
         int phoneId = CallList.getInstance().getPhoneId(subId);
-        mCallId[phoneId] = call.getId();
+        mCallId[phoneId] = call.getNumericId();
         mCall[phoneId] = call;
 
         // Listen for call updates for the current call.
-        CallList.getInstance().addCallUpdateListener(mCallId[phoneId], this);
+        CallList.getInstance().addCallUpdateListener(mCallId[phoneId], this, CALL_UPDATE_MASK);
 
         Log.d(TAG, "Showing incoming for call id: " + mCallId[phoneId] + " " + this);
-        final List<String> textMsgs = CallList.getInstance().getTextResponses(call.getId());
+        final List<String> textMsgs = CallList.getInstance().getTextResponses(
+                call.getNumericId());
         getUi().showAnswerUi(true);
         configureAnswerTargetsForSms(call, textMsgs);
     }
@@ -170,11 +182,11 @@ public class AnswerPresenter extends Presenter<AnswerPresenter.AnswerUi>
 
         int subId = call.getSubId();
         int phoneId = CallList.getInstance().getPhoneId(subId);
-        mCallId[phoneId] = call.getId();
+        mCallId[phoneId] = call.getNumericId();
         mCall[phoneId] = call;
 
         // Listen for call updates for the current call.
-        CallList.getInstance().addCallUpdateListener(mCallId[phoneId], this);
+        CallList.getInstance().addCallUpdateListener(mCallId[phoneId], this, CALL_UPDATE_MASK);
         AnswerUi ui = getUi();
 
         if (ui == null) {
@@ -209,7 +221,7 @@ public class AnswerPresenter extends Presenter<AnswerPresenter.AnswerUi>
     }
 
     @Override
-    public void onCallChanged(Call call) {
+    public void onCallChanged(Call call, int changes) {
         Log.d(this, "onCallStateChange() " + call + " " + this);
         if (call.getState() != Call.State.INCOMING) {
             int subId = call.getSubId();
@@ -231,11 +243,12 @@ public class AnswerPresenter extends Presenter<AnswerPresenter.AnswerUi>
             // mCallId will hold the state of the call. We don't clear the mCall variable here as
             // it may be useful for sending text messages after phone disconnects.
             if (!isUpgradePending) {
-                mCallId[phoneId] = null;
+                mCallId[phoneId] = Call.INVALID_ID;
             }
             mHasTextMessages = false;
         } else if (!mHasTextMessages) {
-            final List<String> textMsgs = CallList.getInstance().getTextResponses(call.getId());
+            final List<String> textMsgs = CallList.getInstance().getTextResponses(
+                call.getNumericId());
             if (textMsgs != null) {
                 configureAnswerTargetsForSms(call, textMsgs);
             }
@@ -260,9 +273,9 @@ public class AnswerPresenter extends Presenter<AnswerPresenter.AnswerUi>
 
     public void onAnswer(int videoState, Context context) {
         int phoneId = getActivePhoneId();
-        Log.i(this, "onAnswer  mCallId:" + mCallId + "phoneId:" + phoneId + " videoState="
-                + videoState);
-        if (mCallId == null || phoneId == -1) {
+        Log.i(this, "onAnswer  mCallId:" + Arrays.toString(mCallId) + "phoneId:" + phoneId
+                + " videoState=" + videoState);
+        if (phoneId == -1) {
             return;
         }
 
@@ -284,7 +297,7 @@ public class AnswerPresenter extends Presenter<AnswerPresenter.AnswerUi>
          */
         String deflectcall = SystemProperties.get("persist.radio.deflect.number");
         if (deflectcall != null && !deflectcall.isEmpty()) {
-            Log.i(this, "deflectCall " + mCallId + "to" + deflectcall);
+            Log.i(this, "deflectCall " + mCallId[phoneId] + "to" + deflectcall);
             TelecomAdapter.getInstance().deflectCall(mCall[phoneId].getId(), deflectcall);
             return;
         }
@@ -299,8 +312,9 @@ public class AnswerPresenter extends Presenter<AnswerPresenter.AnswerUi>
 
     public void onDeflect(String number) {
         int phoneId = getActivePhoneId();
-        Log.i(this, "onDeflect  mCallId:" + mCallId + "phoneId:" + phoneId + "to" + number);
-        if (mCallId == null || phoneId == -1 || number == null || number.isEmpty()) {
+        Log.i(this, "onDeflect  mCallId:" + Arrays.toString(mCallId) + "phoneId:" + phoneId
+                + "to" + number);
+        if (phoneId == -1 || number == null || number.isEmpty()) {
             return;
         }
 
@@ -314,7 +328,7 @@ public class AnswerPresenter extends Presenter<AnswerPresenter.AnswerUi>
      */
     public void onDecline(Context context) {
         int phoneId = getActivePhoneId();
-        Log.i(this, "onDecline mCallId:" + mCallId + "phoneId:" + phoneId);
+        Log.i(this, "onDecline mCallId:" + Arrays.toString(mCallId) + "phoneId:" + phoneId);
         if (mCall[phoneId].getSessionModificationState()
                 == Call.SessionModificationState.RECEIVED_UPGRADE_TO_VIDEO_REQUEST) {
             InCallPresenter.getInstance().declineUpgradeRequest(context);
@@ -376,10 +390,10 @@ public class AnswerPresenter extends Presenter<AnswerPresenter.AnswerUi>
         final CallList calls = CallList.getInstance();
         final Call call = calls.getIncomingCall();
         int phoneId = CallList.getInstance().getPhoneId(subId);
-        if ((call != null) && (call.getId() == mCallId[phoneId])) {
+        if ((call != null) && (call.getNumericId() == mCallId[phoneId])) {
             Log.i(this, "Show incoming for call id: " + mCallId[phoneId] + " " + this);
             final List<String> textMsgs = CallList.getInstance().getTextResponses(
-                    call.getId());
+                    call.getNumericId());
             getUi().showAnswerUi(true);
 
             boolean withSms = call.can(PhoneCapabilities.RESPOND_VIA_TEXT) && textMsgs != null;
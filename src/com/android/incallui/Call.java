@@ -28,12 +28,14 @@ import android.telecom.PhoneCapabilities;
 import android.telecom.GatewayInfo;
 import android.telecom.InCallService.VideoCall;
 import android.telecom.PhoneAccountHandle;
+import android.telecom.StatusHints;
 import android.telecom.VideoProfile;
 import android.telephony.SubscriptionManager;
 
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
+import java.util.Objects;
 
 /**
  * Describes a single call and its state.
@@ -125,6 +127,26 @@ public final class Call {
         public static final int UPGRADE_TO_VIDEO_REQUEST_TIMED_OUT = 4;
     }
 
+    /**
+     * Defines the bits of the change mask delivered with call updates, see
+     * {@link CallList.CallUpdateListener#onCallChanged(Call, int)}.
+     */
+    public static class Changes {
+        public static final int STATE = 1 << 0;
+        public static final int CAPABILITIES = 1 << 1;
+        public static final int VIDEO_STATE = 1 << 2;
+        public static final int CHILDREN = 1 << 3;
+        public static final int DISCONNECT_CAUSE = 1 << 4;
+        public static final int HANDLE = 1 << 5;
+        public static final int STATUS_HINTS = 1 << 6;
+        public static final int CANNED_RESPONSES = 1 << 7;
+        public static final int SESSION_MODIFICATION = 1 << 8;
+
+        public static final int ALL = STATE | CAPABILITIES | VIDEO_STATE | CHILDREN
+                | DISCONNECT_CAUSE | HANDLE | STATUS_HINTS | CANNED_RESPONSES
+                | SESSION_MODIFICATION;
+    }
+
     public static class VideoSettings {
         public static final int CAMERA_DIRECTION_UNKNOWN = -1;
         public static final int CAMERA_DIRECTION_FRONT_FACING =
@@ -169,78 +191,107 @@ public final class Call {
 
     private static final String ID_PREFIX = Call.class.getSimpleName() + "_";
     private static int sIdCounter = 0;
+
+    /** Numeric id that is never assigned to a call. */
+    public static final int INVALID_ID = -1;
     public boolean mIsActiveSub = false;
 
     private android.telecom.Call.Listener mTelecommCallListener =
             new android.telecom.Call.Listener() {
                 @Override
                 public void onStateChanged(android.telecom.Call call, int newState) {
-                    Log.d(this, "TelecommCallListener onStateChanged call=" + call + " newState="
-                            + newState);
+                    recordCallback(FlightRecorder.CALLBACK_STATE_CHANGED, newState);
+                    if (Log.DEBUG) {
+                        Log.d(this, "TelecommCallListener onStateChanged call=%s newState=%d",
+                                call, newState);
+                    }
                     update();
                 }
 
                 @Override
                 public void onParentChanged(android.telecom.Call call,
                         android.telecom.Call newParent) {
-                    Log.d(this, "TelecommCallListener onParentChanged call=" + call + " newParent="
-                            + newParent);
-                    update();
+                    recordCallback(FlightRecorder.CALLBACK_PARENT_CHANGED, 0);
+                    Log.d(this, "TelecommCallListener onParentChanged call=%s newParent=%s", call,
+                            newParent);
+                    // The parent determines whether the call is CONFERENCED, so this is a state
+                    // change even though getState() already reflects it.
+                    update(true /* immediate */);
                 }
 
                 @Override
                 public void onChildrenChanged(android.telecom.Call call,
                         List<android.telecom.Call> children) {
+                    recordCallback(FlightRecorder.CALLBACK_CHILDREN_CHANGED,
+                            children == null ? 0 : children.size());
                     update();
                 }
 
                 @Override
                 public void onDetailsChanged(android.telecom.Call call,
                         android.telecom.Call.Details details) {
-                    Log.d(this, "TelecommCallListener onStateChanged call=" + call + " details="
-                            + details);
+                    recordCallback(FlightRecorder.CALLBACK_DETAILS_CHANGED,
+                            details.getCallCapabilities());
+                    Log.d(this, "TelecommCallListener onStateChanged call=%s details=%s", call,
+                            details);
                     update();
                 }
 
                 @Override
                 public void onCannedTextResponsesLoaded(android.telecom.Call call,
                         List<String> cannedTextResponses) {
-                    Log.d(this, "TelecommCallListener onStateChanged call=" + call
-                            + " cannedTextResponses=" + cannedTextResponses);
+                    recordCallback(FlightRecorder.CALLBACK_CANNED_TEXT_RESPONSES_LOADED, 0);
+                    Log.d(this, "TelecommCallListener onStateChanged call=%s"
+                            + " cannedTextResponses=%s", call, cannedTextResponses);
                     update();
                 }
 
                 @Override
                 public void onPostDialWait(android.telecom.Call call,
                         String remainingPostDialSequence) {
-                    Log.d(this, "TelecommCallListener onStateChanged call=" + call
-                            + " remainingPostDialSequence=" + remainingPostDialSequence);
+                    recordCallback(FlightRecorder.CALLBACK_POST_DIAL_WAIT, 0);
+                    Log.d(this, "TelecommCallListener onStateChanged call=%s"
+                            + " remainingPostDialSequence=%s", call, remainingPostDialSequence);
                     update();
                 }
 
                 @Override
                 public void onVideoCallChanged(android.telecom.Call call,
                         VideoCall videoCall) {
-                    Log.d(this, "TelecommCallListener onStateChanged call=" + call + " videoCall="
-                            + videoCall);
+                    recordCallback(FlightRecorder.CALLBACK_VIDEO_CALL_CHANGED, 0);
+                    Log.d(this, "TelecommCallListener onStateChanged call=%s videoCall=%s", call,
+                            videoCall);
                     update();
                 }
 
                 @Override
                 public void onCallDestroyed(android.telecom.Call call) {
-                    Log.d(this, "TelecommCallListener onStateChanged call=" + call);
+                    recordCallback(FlightRecorder.CALLBACK_CALL_DESTROYED, 0);
+                    Log.d(this, "TelecommCallListener onStateChanged call=", call);
                     call.removeListener(mTelecommCallListener);
                 }
 
                 @Override
                 public void onConferenceableCallsChanged(android.telecom.Call call,
                         List<android.telecom.Call> conferenceableCalls) {
+                    recordCallback(FlightRecorder.CALLBACK_CONFERENCEABLE_CALLS_CHANGED,
+                            conferenceableCalls == null ? 0 : conferenceableCalls.size());
+                    mCapabilitiesDirty = true;
                     update();
                 }
             };
 
+    /**
+     * Disconnect cause reported for calls that are not disconnected. DisconnectCause is
+     * immutable, so a single instance is shared by all calls.
+     */
+    /* package */ static final DisconnectCause UNKNOWN_DISCONNECT_CAUSE =
+            new DisconnectCause(DisconnectCause.UNKNOWN);
+
     private final android.telecom.Call mTelecommCall;
-    private final String mId;
+    private final int mNumericId;
+    /** String form of {@link #mNumericId}, built on first use. */
+    private String mId;
     private int mState = State.INVALID;
     private DisconnectCause mDisconnectCause;
     private int mSessionModificationState;
@@ -248,11 +299,38 @@ public final class Call {
     private final VideoSettings mVideoSettings = new VideoSettings();
     private int mModifyToVideoState = VideoProfile.VideoState.AUDIO_ONLY;
 
+    /** Fields changed since the listeners were last notified, see {@link Changes}. */
+    private int mChanges;
+    /**
+     * Details seen on the previous update. Telecom replaces the Details object whenever any of
+     * its fields change, so an identical reference means there is nothing to diff.
+     */
+    private android.telecom.Call.Details mDetails;
+    private android.telecom.Call mParent;
+    /** Capabilities as reported by Telecom. */
+    private int mCallCapabilities;
+    /**
+     * Capabilities as seen by the UI: {@link #mCallCapabilities} with the MERGE_CONFERENCE bit
+     * resolved against the conferenceable calls, so that {@link #can(int)} is a single mask.
+     */
+    private int mEffectiveCapabilities;
+    /** Whether {@link #mEffectiveCapabilities} needs to be recomputed on the next update. */
+    private boolean mCapabilitiesDirty = true;
+    private int mVideoState;
+    private Uri mHandle;
+    private StatusHints mStatusHints;
+    private List<String> mCannedResponses;
+    private PhoneAccountHandle mAccountHandle;
+    /** Subscription id parsed from {@link #mAccountHandle}, see {@link #getAccountSubId()}. */
+    private int mAccountSubId = SubscriptionManager.INVALID_SUBSCRIPTION_ID;
+
     private InCallVideoCallListener mVideoCallListener;
+    /** The video call {@link #mVideoCallListener} is registered with. */
+    private VideoCall mVideoCall;
 
     public Call(android.telecom.Call telecommCall) {
         mTelecommCall = telecommCall;
-        mId = ID_PREFIX + Integer.toString(sIdCounter++);
+        mNumericId = sIdCounter++;
         updateFromTelecommCall();
         mTelecommCall.addListener(mTelecommCallListener);
     }
@@ -269,27 +347,51 @@ public final class Call {
         return mVideoSettings;
     }
 
+    private void recordCallback(int callback, int arg) {
+        FlightRecorder.getInstance().recordCallback(this, callback, arg);
+        InCallMetrics.getInstance().increment(InCallMetrics.TELECOM_CALLBACKS);
+    }
+
     private void update() {
+        update(false /* immediate */);
+    }
+
+    /**
+     * Refreshes the call from Telecomm and reports the change to the {@link CallList}.
+     *
+     * @param immediate Whether the update must be delivered right away even if the state of the
+     *     call did not change.
+     */
+    private void update(boolean immediate) {
         int oldState = getState();
         updateFromTelecommCall();
         if (oldState != getState() && getState() == Call.State.DISCONNECTED) {
             CallList.getInstance().onDisconnect(this);
-        } else {
+        } else if (immediate || oldState != getState()) {
             CallList.getInstance().onUpdate(this);
+        } else {
+            // State is unchanged; let CallList coalesce this with other updates in the frame.
+            CallList.getInstance().scheduleUpdate(this);
         }
     }
 
     private void updateFromTelecommCall() {
-        Log.d(this, "updateFromTelecommCall: " + mTelecommCall.toString());
+        Log.d(this, "updateFromTelecommCall: ", mTelecommCall);
+        final android.telecom.Call.Details details = mTelecommCall.getDetails();
         setState(translateState(mTelecommCall.getState()));
-        setDisconnectCause(mTelecommCall.getDetails().getDisconnectCause());
         mIsActiveSub = mTelecommCall.mIsActiveSub;
-
-        if (mTelecommCall.getVideoCall() != null) {
-            if (mVideoCallListener == null) {
-                mVideoCallListener = new InCallVideoCallListener(this);
+        updateChanges(details);
+
+        final VideoCall videoCall = mTelecommCall.getVideoCall();
+        if (videoCall != mVideoCall) {
+            // Only register with a new video call; the listener stays attached otherwise.
+            mVideoCall = videoCall;
+            if (videoCall != null) {
+                if (mVideoCallListener == null) {
+                    mVideoCallListener = new InCallVideoCallListener(this);
+                }
+                videoCall.setVideoCallListener(mVideoCallListener);
             }
-            mTelecommCall.getVideoCall().setVideoCallListener(mVideoCallListener);
         }
 
         final List<android.telecom.Call> children = mTelecommCall.getChildren();
@@ -297,14 +399,139 @@ public final class Call {
             Log.e(this, "updateFromTelecommCall: children null " + mTelecommCall);
             return;
         }
-        mChildCallIds.clear();
+        boolean childrenChanged = false;
         for (int i = 0; i < children.size(); i++) {
-            mChildCallIds.add(
-                    CallList.getInstance().getCallByTelecommCall(
-                            children.get(i)).getId());
+            final String childId = CallList.getInstance().getCallByTelecommCall(
+                    children.get(i)).getId();
+            if (i >= mChildCallIds.size()) {
+                mChildCallIds.add(childId);
+                childrenChanged = true;
+            } else if (!childId.equals(mChildCallIds.get(i))) {
+                mChildCallIds.set(i, childId);
+                childrenChanged = true;
+            }
+        }
+        while (mChildCallIds.size() > children.size()) {
+            mChildCallIds.remove(mChildCallIds.size() - 1);
+            childrenChanged = true;
+        }
+        if (childrenChanged) {
+            mChanges |= Changes.CHILDREN;
         }
     }
 
+    /**
+     * Records which of the fields reported through {@link Changes} differ from the values seen
+     * on the previous update.
+     */
+    private void updateChanges(android.telecom.Call.Details details) {
+        final android.telecom.Call parent = mTelecommCall.getParent();
+        if (parent != mParent) {
+            // The parent decides whether the call is CONFERENCED.
+            mParent = parent;
+            mChanges |= Changes.STATE;
+        }
+        final List<String> cannedResponses = mTelecommCall.getCannedTextResponses();
+        if (!Objects.equals(cannedResponses, mCannedResponses)) {
+            mCannedResponses = cannedResponses;
+            mChanges |= Changes.CANNED_RESPONSES;
+        }
+        if (details != mDetails) {
+            mDetails = details;
+            updateDetailsChanges(details);
+        }
+        if (mCapabilitiesDirty) {
+            updateEffectiveCapabilities();
+        }
+    }
+
+    private void updateDetailsChanges(android.telecom.Call.Details details) {
+        setDisconnectCause(details.getDisconnectCause());
+        final int callCapabilities = details.getCallCapabilities();
+        if (callCapabilities != mCallCapabilities) {
+            mCallCapabilities = callCapabilities;
+            mCapabilitiesDirty = true;
+        }
+        final int videoState = details.getVideoState();
+        if (videoState != mVideoState) {
+            mVideoState = videoState;
+            mChanges |= Changes.VIDEO_STATE;
+        }
+        final Uri handle = details.getHandle();
+        if (!Objects.equals(handle, mHandle)) {
+            mHandle = handle;
+            mChanges |= Changes.HANDLE;
+        }
+        final StatusHints statusHints = details.getStatusHints();
+        if (!Objects.equals(statusHints, mStatusHints)) {
+            mStatusHints = statusHints;
+            mChanges |= Changes.STATUS_HINTS;
+        }
+        final PhoneAccountHandle accountHandle = details.getAccountHandle();
+        if (!Objects.equals(accountHandle, mAccountHandle)) {
+            mAccountHandle = accountHandle;
+            mAccountSubId = parseSubId(accountHandle);
+            // Merging on DSDA depends on the subscription of the call.
+            mCapabilitiesDirty = true;
+        }
+    }
+
+    /**
+     * Recomputes {@link #mEffectiveCapabilities} from the capabilities reported by Telecom and
+     * the conferenceable calls.
+     */
+    private void updateEffectiveCapabilities() {
+        mCapabilitiesDirty = false;
+        int capabilities = mCallCapabilities;
+        if (canMerge()) {
+            capabilities |= PhoneCapabilities.MERGE_CONFERENCE;
+        } else {
+            capabilities &= ~PhoneCapabilities.MERGE_CONFERENCE;
+        }
+        if (capabilities != mEffectiveCapabilities) {
+            mEffectiveCapabilities = capabilities;
+            mChanges |= Changes.CAPABILITIES;
+        }
+    }
+
+    private boolean canMerge() {
+        // We allow you to merge if the capabilities allow it or if it is a call with
+        // conferenceable calls.
+        final boolean mergeCapability =
+                (PhoneCapabilities.MERGE_CONFERENCE & mCallCapabilities) != 0;
+        final List<android.telecom.Call> conferenceableCalls =
+                mTelecommCall.getConferenceableCalls();
+        if (CallList.getInstance().isDsdaEnabled()) {
+            if (mergeCapability) {
+                return true;
+            }
+            final int subId = getSubId();
+            for (int i = 0; i < conferenceableCalls.size(); i++) {
+                final PhoneAccountHandle phHandle =
+                        conferenceableCalls.get(i).getDetails().getAccountHandle();
+                if (phHandle != null && parseSubId(phHandle) == subId) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        // Cannot merge calls if there are no calls to merge with or capability to merge is
+        // missing
+        return mergeCapability && !conferenceableCalls.isEmpty();
+    }
+
+    /**
+     * Returns the fields that changed since the last call and clears them. Called by
+     * {@link CallList} when it notifies the call update listeners.
+     *
+     * @return A mask of {@link Changes} bits.
+     */
+    /* package */ int takeChanges() {
+        final int changes = mChanges;
+        mChanges = 0;
+        return changes;
+    }
+
     private static int translateState(int state) {
         switch (state) {
             case android.telecom.Call.STATE_NEW:
@@ -330,10 +557,46 @@ public final class Call {
         }
     }
 
+    /**
+     * Returns the string form of the call id, as passed in intents and logged. Lookups within
+     * the UI should use {@link #getNumericId()} instead.
+     */
     public String getId() {
+        if (mId == null) {
+            mId = ID_PREFIX + Integer.toString(mNumericId);
+        }
         return mId;
     }
 
+    /**
+     * @return The numeric part of the call id, unique for the lifetime of the process.
+     */
+    public int getNumericId() {
+        return mNumericId;
+    }
+
+    /**
+     * Converts a call id as returned by {@link #getId()} back to its numeric form, without
+     * allocating.
+     *
+     * @return The numeric id, or {@link #INVALID_ID} if the string is not a call id.
+     */
+    public static int toNumericId(String callId) {
+        if (callId == null || !callId.startsWith(ID_PREFIX)
+                || callId.length() == ID_PREFIX.length()) {
+            return INVALID_ID;
+        }
+        int id = 0;
+        for (int i = ID_PREFIX.length(); i < callId.length(); i++) {
+            final int digit = callId.charAt(i) - '0';
+            if (digit < 0 || digit > 9 || id > (Integer.MAX_VALUE - digit) / 10) {
+                return INVALID_ID;
+            }
+            id = id * 10 + digit;
+        }
+        return id;
+    }
+
     public String getNumber() {
         if (mTelecommCall.getDetails().getGatewayInfo() != null) {
             return mTelecommCall.getDetails().getGatewayInfo()
@@ -355,6 +618,11 @@ public final class Call {
     }
 
     public void setState(int state) {
+        if (state != mState) {
+            mChanges |= Changes.STATE;
+            FlightRecorder.getInstance().recordCallState(this, mState, state);
+            CallLatencyTracker.getInstance().onCallStateChanged(this, state);
+        }
         mState = state;
     }
 
@@ -376,10 +644,13 @@ public final class Call {
             return mDisconnectCause;
         }
 
-        return new DisconnectCause(DisconnectCause.UNKNOWN);
+        return UNKNOWN_DISCONNECT_CAUSE;
     }
 
     public void setDisconnectCause(DisconnectCause disconnectCause) {
+        if (!Objects.equals(disconnectCause, mDisconnectCause)) {
+            mChanges |= Changes.DISCONNECT_CAUSE;
+        }
         mDisconnectCause = disconnectCause;
     }
 
@@ -390,42 +661,7 @@ public final class Call {
 
     /** Checks if the call supports the given set of capabilities supplied as a bit mask. */
     public boolean can(int capabilities) {
-        int supportedCapabilities = mTelecommCall.getDetails().getCallCapabilities();
-
-        if ((capabilities & PhoneCapabilities.MERGE_CONFERENCE) != 0) {
-            // We allow you to merge if the capabilities allow it or if it is a call with
-            // conferenceable calls.
-            if (CallList.getInstance().isDsdaEnabled()) {
-                List<android.telecom.Call> conferenceableCalls =
-                        mTelecommCall.getConferenceableCalls();
-                boolean hasConfenceableCall = false;
-                if (!conferenceableCalls.isEmpty()){
-                    int subId = getSubId();
-                    for (android.telecom.Call call : conferenceableCalls) {
-                        PhoneAccountHandle phHandle = call.getDetails().getAccountHandle();
-                        if (phHandle != null) {
-                            if(Integer.parseInt(phHandle.getId()) == subId) {
-                                hasConfenceableCall = true;
-                                break;
-                            }
-                        }
-                    }
-                }
-                if (!hasConfenceableCall &&
-                        ((PhoneCapabilities.MERGE_CONFERENCE & supportedCapabilities) == 0)) {
-                    // Cannot merge calls if there are no calls to merge with.
-                    return false;
-                }
-            } else if (mTelecommCall.getConferenceableCalls().isEmpty() ||
-                    ((PhoneCapabilities.MERGE_CONFERENCE & supportedCapabilities) == 0)) {
-                // Cannot merge calls if there are no calls to merge with or
-                // capability to merge is missing
-                return false;
-            }
-            // Clearing this bit means this capability is available
-            capabilities &= ~PhoneCapabilities.MERGE_CONFERENCE;
-        }
-        return (capabilities == (capabilities & mTelecommCall.getDetails().getCallCapabilities()));
+        return capabilities == (capabilities & mEffectiveCapabilities);
     }
 
     private boolean hasProperty(int property) {
@@ -450,14 +686,9 @@ public final class Call {
     }
 
     public int getSubId() {
-        PhoneAccountHandle ph = getAccountHandle();
-        if (ph != null) {
-            try {
-                if (ph.getId() != null ) {
-                    return Integer.parseInt(getAccountHandle().getId());
-                }
-            } catch (NumberFormatException e) {
-                Log.w(this,"sub Id is not a number " + e);
+        if (mAccountHandle != null) {
+            if (mAccountSubId != SubscriptionManager.INVALID_SUBSCRIPTION_ID) {
+                return mAccountSubId;
             }
             return SubscriptionManager.getDefaultVoiceSubId();
         } else {
@@ -465,6 +696,29 @@ public final class Call {
         }
     }
 
+    /**
+     * Returns the subscription id of the call's phone account. Unlike {@link #getSubId()} this
+     * does not fall back to the default voice subscription when the account id is not a number.
+     * The id is parsed once whenever the account handle changes.
+     *
+     * @return The subscription id, or {@link SubscriptionManager#INVALID_SUBSCRIPTION_ID} if the
+     *         call has no phone account or its id is not a number.
+     */
+    public int getAccountSubId() {
+        return mAccountSubId;
+    }
+
+    /* package */ static int parseSubId(PhoneAccountHandle ph) {
+        if (ph != null && ph.getId() != null) {
+            try {
+                return Integer.parseInt(ph.getId());
+            } catch (NumberFormatException e) {
+                Log.w(Call.class.getSimpleName(), "sub Id is not a number " + e);
+            }
+        }
+        return SubscriptionManager.INVALID_SUBSCRIPTION_ID;
+    }
+
     public VideoCall getVideoCall() {
         return mTelecommCall.getVideoCall();
     }
@@ -502,18 +756,23 @@ public final class Call {
     public void setSessionModificationTo(int videoState) {
         Log.d(this, "setSessionModificationTo - video state= " + videoState);
         if (videoState == getVideoState()) {
+            if (mSessionModificationState != Call.SessionModificationState.NO_REQUEST) {
+                mChanges |= Changes.SESSION_MODIFICATION;
+            }
             mSessionModificationState = Call.SessionModificationState.NO_REQUEST;
             Log.w(this,"setSessionModificationTo - Clearing session modification state");
         } else {
             mSessionModificationState =
                 Call.SessionModificationState.RECEIVED_UPGRADE_TO_VIDEO_REQUEST;
             setModifyToVideoState(videoState);
+            mChanges |= Changes.SESSION_MODIFICATION;
             CallList.getInstance().onUpgradeToVideo(this);
         }
 
         Log.d(this, "setSessionModificationTo - mSessionModificationState="
             + mSessionModificationState + " video state= " + videoState);
-        update();
+        // The upgrade request has to reach the UI right away, not with the next frame.
+        update(true /* immediate */);
     }
 
     /**
@@ -536,7 +795,8 @@ public final class Call {
             setModifyToVideoState(VideoProfile.VideoState.AUDIO_ONLY);
         }
         if (hasChanged) {
-            update();
+            mChanges |= Changes.SESSION_MODIFICATION;
+            update(true /* immediate */);
         }
     }
 
@@ -569,7 +829,7 @@ public final class Call {
                 "[%s, %s, %s, children:%s, parent:%s, videoState:%d, mIsActivSub:%b,"
                         + " " + "callSubState:%d, mSessionModificationState:%d, conferenceable:%s, "
                                 + "VideoSettings:%s]",
-                mId,
+                getId(),
                 State.toString(getState()),
                 PhoneCapabilities.toString(mTelecommCall.getDetails().getCallCapabilities()),
                 mChildCallIds,
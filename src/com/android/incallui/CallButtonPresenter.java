@@ -85,11 +85,12 @@ public class CallButtonPresenter extends Presenter<CallButtonPresenter.CallButto
     @Override
     public void onStateChange(InCallState oldState, InCallState newState, CallList callList) {
         CallButtonUi ui = getUi();
+        final CallListSnapshot snapshot = callList.getSnapshot();
 
         if (newState == InCallState.OUTGOING) {
-            mCall = callList.getOutgoingCall();
+            mCall = snapshot.getOutgoingCall();
         } else if (newState == InCallState.INCALL) {
-            mCall = callList.getActiveOrBackgroundCall();
+            mCall = snapshot.getActiveOrBackgroundCall();
 
             // When connected to voice mail, automatically shows the dialpad.
             // (On previous releases we showed it when in-call shows up, before waiting for
@@ -389,10 +390,12 @@ public class CallButtonPresenter extends Presenter<CallButtonPresenter.CallButto
                 (activeCall != null) && activeCall.can(PhoneCapabilities.MERGE_CONFERENCE);
         boolean backgroundCallCanMerge =
                 (backgroundCall != null) && backgroundCall.can(PhoneCapabilities.MERGE_CONFERENCE);
-        String acId = (activeCall != null) ? activeCall.getId() : "null";
-        String bcId = (backgroundCall != null) ? backgroundCall.getId() : "null";
-        Log.v(this, "canShowMergeOption: " + acId + " " + activeCallCanMerge +
-                " " + bcId + " " + backgroundCallCanMerge);
+        if (Log.VERBOSE) {
+            String acId = (activeCall != null) ? activeCall.getId() : "null";
+            String bcId = (backgroundCall != null) ? backgroundCall.getId() : "null";
+            Log.v(this, "canShowMergeOption: " + acId + " " + activeCallCanMerge +
+                    " " + bcId + " " + backgroundCallCanMerge);
+        }
         return activeCallCanMerge && backgroundCallCanMerge;
     }
 
@@ -409,17 +412,19 @@ public class CallButtonPresenter extends Presenter<CallButtonPresenter.CallButto
         ui.showAudioButton(true);
         ui.showDialpadButton(true);
 
-        Log.v(this, "Show hold ", call.can(PhoneCapabilities.SUPPORT_HOLD));
-        Log.v(this, "Enable hold", call.can(PhoneCapabilities.HOLD));
-        // TODO: Every button here is calculated based on the provided call
-        // Is it ok that we don't pay attention to the call argument?
-        Log.v(this, "Show merge " + canShowMergeOption());
-
-        Log.v(this, "Show swap ", call.can(PhoneCapabilities.SWAP_CONFERENCE));
-        Log.v(this, "Show add call ", TelecomAdapter.getInstance().canAddCall());
-        Log.v(this, "Show mute ", call.can(PhoneCapabilities.MUTE));
-        Log.v(this, "Show video call local:", call.can(PhoneCapabilities.SUPPORTS_VT_LOCAL)
-                + " remote: " + call.can(PhoneCapabilities.SUPPORTS_VT_REMOTE));
+        if (Log.VERBOSE) {
+            Log.v(this, "Show hold ", call.can(PhoneCapabilities.SUPPORT_HOLD));
+            Log.v(this, "Enable hold", call.can(PhoneCapabilities.HOLD));
+            // TODO: Every button here is calculated based on the provided call
+            // Is it ok that we don't pay attention to the call argument?
+            Log.v(this, "Show merge " + canShowMergeOption());
+
+            Log.v(this, "Show swap ", call.can(PhoneCapabilities.SWAP_CONFERENCE));
+            Log.v(this, "Show add call ", TelecomAdapter.getInstance().canAddCall());
+            Log.v(this, "Show mute ", call.can(PhoneCapabilities.MUTE));
+            Log.v(this, "Show video call local:", call.can(PhoneCapabilities.SUPPORTS_VT_LOCAL)
+                    + " remote: " + call.can(PhoneCapabilities.SUPPORTS_VT_REMOTE));
+        }
 
         final boolean canAdd = TelecomAdapter.getInstance().canAddCall();
         final boolean enableHoldOption = call.can(PhoneCapabilities.HOLD);
@@ -455,9 +460,11 @@ public class CallButtonPresenter extends Presenter<CallButtonPresenter.CallButto
         buttonCount += toInteger(call.can(PhoneCapabilities.MUTE));
         buttonCount += toInteger(showManageVideoCallConferenceOption);
 
-        Log.v(this, "show AddParticipant: " + showAddParticipantOption +
-                " show ManageVideoCallConference: " + showManageVideoCallConferenceOption);
-        Log.v(this, "No of InCall buttons: " + buttonCount + " canVideoCall: " + canVideoCall);
+        if (Log.VERBOSE) {
+            Log.v(this, "show AddParticipant: %b show ManageVideoCallConference: %b",
+                    showAddParticipantOption, showManageVideoCallConferenceOption);
+            Log.v(this, "No of InCall buttons: %d canVideoCall: %b", buttonCount, canVideoCall);
+        }
 
         // Show overflow menu if number of buttons is greater than 5.
         final boolean showOverflowMenu =
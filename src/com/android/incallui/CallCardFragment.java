@@ -65,6 +65,8 @@ public class CallCardFragment extends BaseFragment<CallCardPresenter, CallCardPr
     private int mFabSmallDiameter;
     private boolean mIsLandscape;
     private boolean mIsDialpadShowing;
+    /** Whether a pre-draw listener is waiting to end the incoming call trace slices. */
+    private boolean mIsCallCardDrawTracePending;
 
     // Primary caller info
     private TextView mPhoneNumber;
@@ -437,6 +439,35 @@ public class CallCardFragment extends BaseFragment<CallCardPresenter, CallCardPr
         showInternetCallLabel(isSipCall);
 
         setDrawableToImageView(mPhoto, photo);
+
+        if (InCallTrace.hasPendingIncomingCall()
+                || CallLatencyTracker.getInstance().isWaitingForCallCard()) {
+            traceNextDraw();
+        }
+    }
+
+    /**
+     * Ends the pending incoming call trace slices, and records the call card milestone of
+     * outgoing calls, when the call card is next drawn.
+     */
+    private void traceNextDraw() {
+        if (mIsCallCardDrawTracePending || getView() == null) {
+            return;
+        }
+        mIsCallCardDrawTracePending = true;
+        final ViewTreeObserver observer = getView().getViewTreeObserver();
+        observer.addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                if (observer.isAlive()) {
+                    observer.removeOnPreDrawListener(this);
+                }
+                mIsCallCardDrawTracePending = false;
+                InCallTrace.onCallCardDrawn();
+                CallLatencyTracker.getInstance().onCallCardDrawn();
+                return true;
+            }
+        });
     }
 
     @Override
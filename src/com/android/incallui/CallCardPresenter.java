@@ -68,6 +68,11 @@ public class CallCardPresenter extends Presenter<CallCardPresenter.CallCardUi>
     private CallTimer mCallTimer;
     private Context mContext;
     private TelecomManager mTelecomManager;
+    /** Callbacks for the contact lookups, reused so that repeated searches share a callback. */
+    private final ContactLookupCallback mPrimaryContactLookupCallback =
+            new ContactLookupCallback(this, true);
+    private final ContactLookupCallback mSecondaryContactLookupCallback =
+            new ContactLookupCallback(this, false);
 
     public static class ContactLookupCallback implements ContactInfoCacheCallback {
         private final WeakReference<CallCardPresenter> mCallCardPresenter;
@@ -167,24 +172,9 @@ public class CallCardPresenter extends Presenter<CallCardPresenter.CallCardUi>
             return;
         }
 
-        Call primary = null;
-        Call secondary = null;
-
-        if (newState == InCallState.INCOMING) {
-            primary = callList.getIncomingCall();
-        } else if (newState == InCallState.PENDING_OUTGOING || newState == InCallState.OUTGOING) {
-            primary = callList.getOutgoingCall();
-            if (primary == null) {
-                primary = callList.getPendingOutgoingCall();
-            }
-
-            // getCallToDisplay doesn't go through outgoing or incoming calls. It will return the
-            // highest priority call to display as the secondary call.
-            secondary = getCallToDisplay(callList, null, true);
-        } else if (newState == InCallState.INCALL) {
-            primary = getCallToDisplay(callList, null, false);
-            secondary = getCallToDisplay(callList, primary, true);
-        }
+        final CallListSnapshot snapshot = callList.getSnapshot();
+        final Call primary = snapshot.getPrimaryCall(newState);
+        final Call secondary = snapshot.getSecondaryCall(newState);
 
         Log.d(this, "Primary call: " + primary);
         Log.d(this, "Secondary call: " + secondary);
@@ -396,7 +386,8 @@ public class CallCardPresenter extends Presenter<CallCardPresenter.CallCardUi>
             boolean isIncoming) {
         final ContactInfoCache cache = ContactInfoCache.getInstance(mContext);
 
-        cache.findInfo(call, isIncoming, new ContactLookupCallback(this, isPrimary));
+        cache.findInfo(call, isIncoming,
+                isPrimary ? mPrimaryContactLookupCallback : mSecondaryContactLookupCallback);
     }
 
     private void onContactInfoComplete(String callId, ContactCacheEntry entry, boolean isPrimary) {
@@ -438,48 +429,6 @@ public class CallCardPresenter extends Presenter<CallCardPresenter.CallCardUi>
         }
     }
 
-    /**
-     * Get the highest priority call to display.
-     * Goes through the calls and chooses which to return based on priority of which type of call
-     * to display to the user. Callers can use the "ignore" feature to get the second best call
-     * by passing a previously found primary call as ignore.
-     *
-     * @param ignore A call to ignore if found.
-     */
-    private Call getCallToDisplay(CallList callList, Call ignore, boolean skipDisconnected) {
-
-        // Active calls come second.  An active call always gets precedent.
-        Call retval = callList.getActiveCall();
-        if (retval != null && retval != ignore) {
-            return retval;
-        }
-
-        // Disconnected calls get primary position if there are no active calls
-        // to let user know quickly what call has disconnected. Disconnected
-        // calls are very short lived.
-        if (!skipDisconnected) {
-            retval = callList.getDisconnectingCall();
-            if (retval != null && retval != ignore) {
-                return retval;
-            }
-            retval = callList.getDisconnectedCall();
-            if (retval != null && retval != ignore) {
-                return retval;
-            }
-        }
-
-        // Then we go to background call (calls on hold)
-        retval = callList.getBackgroundCall();
-        if (retval != null && retval != ignore) {
-            return retval;
-        }
-
-        // Lastly, we go to a second background call.
-        retval = callList.getSecondBackgroundCall();
-
-        return retval;
-    }
-
     private void updatePrimaryDisplayInfo() {
         final CallCardUi ui = getUi();
         if (ui == null) {
@@ -518,6 +467,11 @@ public class CallCardPresenter extends Presenter<CallCardPresenter.CallCardUi>
                     mPrimaryContactInfo.label,
                     mPrimaryContactInfo.photo,
                     mPrimaryContactInfo.isSipCall);
+            if (name != null && (mPrimary.getState() == Call.State.INCOMING
+                    || mPrimary.getState() == Call.State.CALL_WAITING)) {
+                CallLatencyTracker.getInstance().onMilestone(mPrimary,
+                        CallLatencyTracker.MILESTONE_INCOMING_CONTACT_NAME_SHOWN);
+            }
         } else {
             // Clear the primary display info.
             ui.setPrimary(null, null, false, null, null, false);
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.incallui;
+
+import android.os.Handler;
+import android.os.Message;
+import android.os.SystemClock;
+
+import java.util.HashMap;
+
+/**
+ * Schedules the expiry of disconnected calls. Keeps at most one pending timer per call: asking
+ * to expire a call which already has a timer keeps whichever deadline comes first instead of
+ * queueing another one, so the expiry callback runs exactly once per call.
+ */
+public class CallExpiryScheduler {
+
+    /**
+     * Called when the timer for a call has expired.
+     */
+    public interface Callback {
+        public void onCallExpired(Call call);
+    }
+
+    private static final int EVENT_EXPIRE = 1;
+
+    private final Callback mCallback;
+    private final HashMap<Call, Long> mDeadlines = new HashMap<>();
+    private int mAbsorbedCount = 0;
+
+    private final Handler mHandler = new Handler() {
+        @Override
+        public void handleMessage(Message msg) {
+            switch (msg.what) {
+                case EVENT_EXPIRE:
+                    final Call call = (Call) msg.obj;
+                    mDeadlines.remove(call);
+                    Log.d(this, "EVENT_EXPIRE ", call);
+                    mCallback.onCallExpired(call);
+                    break;
+                default:
+                    Log.wtf(this, "Message not expected: " + msg.what);
+                    break;
+            }
+        }
+    };
+
+    public CallExpiryScheduler(Callback callback) {
+        mCallback = callback;
+    }
+
+    /**
+     * Schedules the call to expire after the given delay. If the call already has a pending
+     * timer the earlier of the two deadlines is kept.
+     *
+     * @param call The call to expire.
+     * @param delayMs The delay in milliseconds.
+     */
+    public void schedule(Call call, long delayMs) {
+        final long deadline = SystemClock.uptimeMillis() + delayMs;
+        final Long pendingDeadline = mDeadlines.get(call);
+        if (pendingDeadline != null) {
+            mAbsorbedCount++;
+            if (pendingDeadline <= deadline) {
+                return;
+            }
+            mHandler.removeMessages(EVENT_EXPIRE, call);
+        }
+        mDeadlines.put(call, deadline);
+        mHandler.sendMessageAtTime(mHandler.obtainMessage(EVENT_EXPIRE, call), deadline);
+    }
+
+    /**
+     * Cancels the pending timer for the call, if any.
+     */
+    public void cancel(Call call) {
+        if (mDeadlines.remove(call) != null) {
+            mHandler.removeMessages(EVENT_EXPIRE, call);
+        }
+    }
+
+    /**
+     * @return The number of calls with a pending timer.
+     */
+    public int getPendingCount() {
+        return mDeadlines.size();
+    }
+
+    /**
+     * @return The number of requests that were merged into an already pending timer instead of
+     *         scheduling another expiry.
+     */
+    public int getAbsorbedCount() {
+        return mAbsorbedCount;
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.incallui;
+
+import android.os.SystemClock;
+import android.util.SparseArray;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Measures how long the UI takes to react to a new call. Every call is timed from the moment
+ * Telecom adds it to the {@link CallList}; each milestone is recorded once per call, as the
+ * latency from that moment.
+ *
+ * Incoming calls: full screen notification posted, {@link InCallActivity} resumed, answer
+ * GlowPad drawn, contact name shown. Outgoing calls: DIALING reached, call card drawn.
+ *
+ * The latencies of the most recent calls are kept per milestone, from which p50/p95/p99 are
+ * computed. They are printed by {@link InCallServiceImpl#dump} and milestones are reported to
+ * {@link Listener}s as they are reached.
+ */
+public final class CallLatencyTracker {
+
+    public static final int MILESTONE_INCOMING_NOTIFICATION_POSTED = 0;
+    public static final int MILESTONE_INCOMING_ACTIVITY_RESUMED = 1;
+    public static final int MILESTONE_INCOMING_ANSWER_UI_DRAWN = 2;
+    public static final int MILESTONE_INCOMING_CONTACT_NAME_SHOWN = 3;
+    public static final int MILESTONE_OUTGOING_DIALING = 4;
+    public static final int MILESTONE_OUTGOING_CALL_CARD_DRAWN = 5;
+    private static final int MILESTONE_COUNT = 6;
+
+    /** Number of calls whose latencies are kept for each milestone. */
+    private static final int WINDOW_SIZE = 128;
+
+    /**
+     * Notified when a call reaches a milestone.
+     */
+    public interface Listener {
+        /**
+         * @param call The call.
+         * @param milestone One of the MILESTONE_* constants.
+         * @param latencyMillis Time since the call was added.
+         */
+        public void onMilestoneReached(Call call, int milestone, long latencyMillis);
+    }
+
+    private static CallLatencyTracker sInstance;
+
+    /** Calls being timed, keyed by {@link Call#getNumericId()}. */
+    private final SparseArray<CallRecord> mRecords = new SparseArray<>();
+    private final long[][] mSamples = new long[MILESTONE_COUNT][WINDOW_SIZE];
+    private final long[] mSampleCounts = new long[MILESTONE_COUNT];
+    private final List<Listener> mListeners = new CopyOnWriteArrayList<>();
+
+    public static synchronized CallLatencyTracker getInstance() {
+        if (sInstance == null) {
+            sInstance = new CallLatencyTracker();
+        }
+        return sInstance;
+    }
+
+    private CallLatencyTracker() {
+    }
+
+    public void addListener(Listener listener) {
+        mListeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Starts timing a call which has just been added by Telecom.
+     */
+    public void onCallAdded(Call call) {
+        final int state = call.getState();
+        final boolean isIncoming = state == Call.State.INCOMING
+                || state == Call.State.CALL_WAITING;
+        mRecords.put(call.getNumericId(),
+                new CallRecord(SystemClock.elapsedRealtimeNanos(), isIncoming));
+    }
+
+    public void onCallStateChanged(Call call, int newState) {
+        if (newState == Call.State.DIALING) {
+            onMilestone(call, MILESTONE_OUTGOING_DIALING);
+        }
+    }
+
+    /**
+     * Stops timing a call which is finished.
+     */
+    public void onCallRemoved(Call call) {
+        mRecords.remove(call.getNumericId());
+    }
+
+    /**
+     * @return true if an outgoing call is waiting for the call card to be drawn.
+     */
+    public boolean isWaitingForCallCard() {
+        for (int i = 0; i < mRecords.size(); i++) {
+            if (!mRecords.valueAt(i).isIncoming
+                    && !mRecords.valueAt(i).hasReached(MILESTONE_OUTGOING_CALL_CARD_DRAWN)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Records that the call card has been drawn, for all outgoing calls waiting for it.
+     */
+    public void onCallCardDrawn() {
+        for (int i = 0; i < mRecords.size(); i++) {
+            final Call call = CallList.getInstance().getCallById(mRecords.keyAt(i));
+            if (call != null) {
+                onMilestone(call, MILESTONE_OUTGOING_CALL_CARD_DRAWN);
+            }
+        }
+    }
+
+    /**
+     * Records a milestone for a call. Milestones which do not apply to the direction of the
+     * call, or which the call has already reached, are ignored.
+     *
+     * @param call The call, can be null.
+     * @param milestone One of the MILESTONE_* constants.
+     */
+    public void onMilestone(Call call, int milestone) {
+        if (call == null) {
+            return;
+        }
+        final CallRecord record = mRecords.get(call.getNumericId());
+        if (record == null || record.isIncoming != isIncomingMilestone(milestone)
+                || record.hasReached(milestone)) {
+            return;
+        }
+        record.reachedMilestones |= 1 << milestone;
+        final long latencyMillis =
+                (SystemClock.elapsedRealtimeNanos() - record.startNanos) / 1000000;
+        addSample(milestone, latencyMillis);
+        if (Log.DEBUG) {
+            Log.d(this, "onMilestone %s: %dms", milestoneToString(milestone), latencyMillis);
+        }
+        for (Listener listener : mListeners) {
+            listener.onMilestoneReached(call, milestone, latencyMillis);
+        }
+    }
+
+    /**
+     * Returns a percentile of the latencies recorded for the most recent calls.
+     *
+     * @param milestone One of the MILESTONE_* constants.
+     * @param percentile The percentile, between 1 and 100.
+     * @return The latency in milliseconds, or -1 if no call reached the milestone yet.
+     */
+    public synchronized long getPercentile(int milestone, int percentile) {
+        final long[] sorted = getSortedSamples(milestone);
+        return sorted.length == 0 ? -1 : percentile(sorted, percentile);
+    }
+
+    public synchronized void dump(PrintWriter pw) {
+        pw.println("CallLatencyTracker (ms):");
+        for (int milestone = 0; milestone < MILESTONE_COUNT; milestone++) {
+            final long[] sorted = getSortedSamples(milestone);
+            if (sorted.length == 0) {
+                pw.println("  " + milestoneToString(milestone) + ": no samples");
+                continue;
+            }
+            pw.println(String.format(Locale.US, "  %s: calls=%d p50=%d p95=%d p99=%d max=%d",
+                    milestoneToString(milestone), mSampleCounts[milestone],
+                    percentile(sorted, 50), percentile(sorted, 95), percentile(sorted, 99),
+                    sorted[sorted.length - 1]));
+        }
+    }
+
+    private synchronized void addSample(int milestone, long latencyMillis) {
+        mSamples[milestone][(int) (mSampleCounts[milestone] % WINDOW_SIZE)] = latencyMillis;
+        mSampleCounts[milestone]++;
+    }
+
+    private long[] getSortedSamples(int milestone) {
+        final int size = (int) Math.min(mSampleCounts[milestone], WINDOW_SIZE);
+        final long[] sorted = Arrays.copyOf(mSamples[milestone], size);
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    /**
+     * Nearest-rank percentile of a sorted, non-empty array.
+     */
+    private static long percentile(long[] sorted, int percentile) {
+        final int rank = (int) Math.ceil(percentile / 100.0 * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length, rank) - 1)];
+    }
+
+    private static boolean isIncomingMilestone(int milestone) {
+        return milestone <= MILESTONE_INCOMING_CONTACT_NAME_SHOWN;
+    }
+
+    private static String milestoneToString(int milestone) {
+        switch (milestone) {
+            case MILESTONE_INCOMING_NOTIFICATION_POSTED:
+                return "incoming.notification_posted";
+            case MILESTONE_INCOMING_ACTIVITY_RESUMED:
+                return "incoming.activity_resumed";
+            case MILESTONE_INCOMING_ANSWER_UI_DRAWN:
+                return "incoming.answer_ui_drawn";
+            case MILESTONE_INCOMING_CONTACT_NAME_SHOWN:
+                return "incoming.contact_name_shown";
+            case MILESTONE_OUTGOING_DIALING:
+                return "outgoing.dialing";
+            case MILESTONE_OUTGOING_CALL_CARD_DRAWN:
+                return "outgoing.call_card_drawn";
+            default:
+                return "UNKNOWN(" + milestone + ")";
+        }
+    }
+
+    private static final class CallRecord {
+        final long startNanos;
+        final boolean isIncoming;
+        /** Bit mask of the milestones already reached. */
+        int reachedMilestones;
+
+        CallRecord(long startNanos, boolean isIncoming) {
+            this.startNanos = startNanos;
+            this.isIncoming = isIncoming;
+        }
+
+        boolean hasReached(int milestone) {
+            return (reachedMilestones & (1 << milestone)) != 0;
+        }
+    }
+}
@@ -17,16 +17,20 @@
 package com.android.incallui;
 
 import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
 import com.google.common.base.Preconditions;
 
 import android.os.Handler;
 import android.os.Message;
+import android.os.SystemClock;
+import android.os.Trace;
 import android.telecom.DisconnectCause;
 import android.telecom.Phone;
 import android.telecom.PhoneAccountHandle;
 import android.telephony.SubscriptionManager;
 import android.telephony.TelephonyManager;
+import android.util.SparseArray;
+import android.util.SparseIntArray;
+import android.view.Choreographer;
 
 import com.android.internal.telephony.PhoneConstants;
 
@@ -36,7 +40,6 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Maintains the list of active calls and notifies interested classes of changes to the call list
@@ -49,14 +52,29 @@ public class CallList implements InCallPhoneListener {
     private static final int DISCONNECTED_CALL_MEDIUM_TIMEOUT_MS = 2000;
     private static final int DISCONNECTED_CALL_LONG_TIMEOUT_MS = 5000;
 
-    private static final int EVENT_DISCONNECTED_TIMEOUT = 1;
     private static final int EVENT_NOTIFY_CHANGE = 2;
 
     private static CallList sInstance = new CallList();
 
-    private final HashMap<String, Call> mCallById = new HashMap<>();
+    /** Live calls keyed by {@link Call#getNumericId()}. */
+    private final SparseArray<Call> mCallById = new SparseArray<>();
     private final HashMap<android.telecom.Call, Call> mCallByTelecommCall = new HashMap<>();
-    private final HashMap<String, List<String>> mCallTextReponsesMap = Maps.newHashMap();
+    /**
+     * Index of the calls in {@link #mCallById} keyed by call state. Each list holds the calls in
+     * the order in which they entered that state, so state lookups do not have to walk the whole
+     * call map. Kept in sync by {@link #updateCallInMap}.
+     */
+    private final SparseArray<List<Call>> mCallsByState = new SparseArray<>();
+    /** The state under which each call is currently filed in {@link #mCallsByState}. */
+    private final SparseIntArray mIndexedStateById = new SparseIntArray();
+    /**
+     * Number of calls in {@link #mCallById} per subscription id of their phone account, used by
+     * the DSDA checks. Calls without a numeric subscription id are not counted.
+     */
+    private final SparseIntArray mLiveCallCountBySub = new SparseIntArray();
+    /** The subscription under which each call is counted in {@link #mLiveCallCountBySub}. */
+    private final SparseIntArray mIndexedSubById = new SparseIntArray();
+    private final SparseArray<List<String>> mCallTextReponsesMap = new SparseArray<>();
     /**
      * ConcurrentHashMap constructor params: 8 is initial table size, 0.9f is
      * load factor before resizing, 1 means we only expect a single thread to
@@ -64,10 +82,25 @@ public class CallList implements InCallPhoneListener {
      */
     private final Set<Listener> mListeners = Collections.newSetFromMap(
             new ConcurrentHashMap<Listener, Boolean>(8, 0.9f, 1));
-    private final HashMap<String, List<CallUpdateListener>> mCallUpdateListenerMap = Maps
-            .newHashMap();
+    private final CallUpdateListenerRegistry mCallUpdateListeners =
+            new CallUpdateListenerRegistry();
+
+    /**
+     * Version of the call list contents, incremented whenever a call is added, updated or removed
+     * or the active subscription changes. Used to tag {@link CallListSnapshot}s.
+     */
+    private long mVersion = 0;
+    private CallListSnapshot mSnapshot;
+
+    /**
+     * Calls whose non state changing updates are waiting to be delivered on the next frame.
+     * See {@link #scheduleUpdate}.
+     */
+    private final ArrayList<Call> mPendingUpdates = new ArrayList<>();
+    private boolean mIsFrameCallbackPosted = false;
 
     private Phone mPhone;
+    private ContactInfoCache mContactInfoCache;
     private int mSubId = SubscriptionManager.INVALID_SUBSCRIPTION_ID;
     private final ArrayList<ActiveSubChangeListener> mActiveSubChangeListeners =
             Lists.newArrayList();
@@ -85,7 +118,12 @@ public class CallList implements InCallPhoneListener {
         @Override
         public void onCallAdded(Phone phone, android.telecom.Call telecommCall) {
             Call call = new Call(telecommCall);
-            Log.d(this, "onCallAdded: callState=" + call.getState());
+            FlightRecorder.getInstance().recordCallback(call,
+                    FlightRecorder.CALLBACK_CALL_ADDED, telecommCall.getState());
+            Log.d(this, "onCallAdded: callState=", call.getState());
+            CallLatencyTracker.getInstance().onCallAdded(call);
+            CallLatencyTracker.getInstance().onCallStateChanged(call, call.getState());
+            prefetchContactInfo(call);
             if (call.getState() == Call.State.INCOMING ||
                     call.getState() == Call.State.CALL_WAITING) {
                 onIncoming(call, call.getCannedSmsResponses());
@@ -97,8 +135,11 @@ public class CallList implements InCallPhoneListener {
         public void onCallRemoved(Phone phone, android.telecom.Call telecommCall) {
             if (mCallByTelecommCall.containsKey(telecommCall)) {
                 Call call = mCallByTelecommCall.get(telecommCall);
+                FlightRecorder.getInstance().recordCallback(call,
+                        FlightRecorder.CALLBACK_CALL_REMOVED, 0);
+                mPendingUpdates.remove(call);
                 call.setState(Call.State.DISCONNECTED);
-                call.setDisconnectCause(new DisconnectCause(DisconnectCause.UNKNOWN));
+                call.setDisconnectCause(Call.UNKNOWN_DISCONNECT_CAUSE);
                 if (updateCallInMap(call)) {
                     Log.w(this, "Removing call not previously disconnected " + call.getId());
                 }
@@ -111,6 +152,43 @@ public class CallList implements InCallPhoneListener {
      * Private constructor.  Instance should only be acquired through getInstance().
      */
     private CallList() {
+        final InCallMetrics metrics = InCallMetrics.getInstance();
+        metrics.registerGauge("call_list.calls", new InCallMetrics.Gauge() {
+            @Override
+            public long getValue() {
+                return mCallById.size();
+            }
+        });
+        metrics.registerGauge("call_list.pending_updates", new InCallMetrics.Gauge() {
+            @Override
+            public long getValue() {
+                return mPendingUpdates.size();
+            }
+        });
+        metrics.registerGauge("call_list.expiry.pending", new InCallMetrics.Gauge() {
+            @Override
+            public long getValue() {
+                return mDisconnectedCallScheduler.getPendingCount();
+            }
+        });
+        metrics.registerGauge("call_list.expiry.absorbed", new InCallMetrics.Gauge() {
+            @Override
+            public long getValue() {
+                return mDisconnectedCallScheduler.getAbsorbedCount();
+            }
+        });
+        metrics.registerGauge("call_update_listeners.live", new InCallMetrics.Gauge() {
+            @Override
+            public long getValue() {
+                return mCallUpdateListeners.getLiveCount();
+            }
+        });
+        metrics.registerGauge("call_update_listeners.purged", new InCallMetrics.Gauge() {
+            @Override
+            public long getValue() {
+                return mCallUpdateListeners.getPurgedCount();
+            }
+        });
     }
 
     @Override
@@ -125,6 +203,30 @@ public class CallList implements InCallPhoneListener {
         mPhone = null;
     }
 
+    /**
+     * Sets the cache in which the contact lookup of new calls is started, or null to stop
+     * prefetching contact info.
+     */
+    public void setContactInfoCache(ContactInfoCache contactInfoCache) {
+        mContactInfoCache = contactInfoCache;
+    }
+
+    /**
+     * Starts the contact lookup of a new incoming or outgoing call right away, so that it runs
+     * while the in-call UI starts instead of after it.
+     */
+    private void prefetchContactInfo(Call call) {
+        if (mContactInfoCache == null || call.isConferenceCall()) {
+            return;
+        }
+        final int state = call.getState();
+        final boolean isIncoming = state == Call.State.INCOMING
+                || state == Call.State.CALL_WAITING;
+        if (isIncoming || state == Call.State.CONNECTING || state == Call.State.DIALING) {
+            mContactInfoCache.prefetch(call, isIncoming);
+        }
+    }
+
     int getPhoneId(int subId) {
         return SubscriptionManager.getPhoneId(subId);
     }
@@ -137,8 +239,13 @@ public class CallList implements InCallPhoneListener {
      * Called when a single call disconnects.
      */
     public void onDisconnect(Call call) {
+        mPendingUpdates.remove(call);
+        flushPendingUpdates();
+        if (mContactInfoCache != null) {
+            mContactInfoCache.cancelLookup(call);
+        }
         if (updateCallInMap(call)) {
-            Log.i(this, "onDisconnect: " + call);
+            Log.d(this, "onDisconnect: ", call);
             // notify those listening for changes on this specific change
             notifyCallUpdateListeners(call);
             // notify those listening for all disconnects
@@ -150,30 +257,47 @@ public class CallList implements InCallPhoneListener {
      * Called when a single call has changed.
      */
     public void onIncoming(Call call, List<String> textMessages) {
-        Log.d(this, "onIncoming - " + call);
+        Trace.beginSection("CallList.onIncoming");
+        try {
+            onIncomingInternal(call, textMessages);
+        } finally {
+            Trace.endSection();
+        }
+    }
+
+    private void onIncomingInternal(Call call, List<String> textMessages) {
+        InCallTrace.beginIncomingCall(call);
+        Log.d(this, "onIncoming - ", call);
+        mPendingUpdates.remove(call);
+        flushPendingUpdates();
 
         // Update active subscription from call object. it will be set by
         // Telecomm service for incoming call and whenever active sub changes.
         if (call.mIsActiveSub) {
             int sub = call.getSubId();
-            Log.d(this, "onIncoming - sub:" + sub + " mSubId:" + mSubId);
+            if (Log.DEBUG) {
+                Log.d(this, "onIncoming - sub:%d mSubId:%d", sub, mSubId);
+            }
             if (sub != mSubId) {
                 setActiveSubscription(sub);
             }
         }
 
         if (updateCallInMap(call)) {
-            Log.i(this, "onIncoming - " + call);
+            Log.d(this, "onIncoming - ", call);
         }
         updateCallTextMap(call, textMessages);
 
+        FlightRecorder.getInstance().record(FlightRecorder.EVENT_CALL_LIST_INCOMING,
+                call.getNumericId(), mListeners.size(), 0);
+        InCallMetrics.getInstance().increment(InCallMetrics.CALL_LIST_INCOMING);
         for (Listener listener : mListeners) {
             listener.onIncomingCall(call);
         }
     }
 
     public void onUpgradeToVideo(Call call){
-        Log.d(this, "onUpgradeToVideo call=" + call);
+        Log.d(this, "onUpgradeToVideo call=", call);
         for (Listener listener : mListeners) {
             listener.onUpgradeToVideo(call);
         }
@@ -182,54 +306,119 @@ public class CallList implements InCallPhoneListener {
      * Called when a single call has changed.
      */
     public void onUpdate(Call call) {
+        // Deliver any coalesced updates along with this one so listeners see them in order.
+        mPendingUpdates.remove(call);
+        applyPendingUpdates();
+        applyUpdate(call);
+        notifyGenericListeners();
+    }
+
+    /**
+     * Called when a single call has changed in a way that does not affect its state, e.g. its
+     * details, children or conferenceable calls. Telecom tends to send these in bursts, so they
+     * are coalesced and delivered as a single notification on the next frame. Any immediate
+     * update (state change, incoming call or disconnect) delivers the pending updates first.
+     */
+    public void scheduleUpdate(Call call) {
+        if (!mPendingUpdates.contains(call)) {
+            mPendingUpdates.add(call);
+        }
+        if (!mIsFrameCallbackPosted) {
+            mIsFrameCallbackPosted = true;
+            Choreographer.getInstance().postFrameCallback(mFrameCallback);
+        }
+    }
+
+    private final Choreographer.FrameCallback mFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            mIsFrameCallbackPosted = false;
+            flushPendingUpdates();
+        }
+    };
+
+    /**
+     * Applies the coalesced updates and notifies listeners once if there were any.
+     */
+    private void flushPendingUpdates() {
+        if (applyPendingUpdates()) {
+            notifyGenericListeners();
+        }
+    }
+
+    /**
+     * Applies the coalesced updates to the call map without notifying generic listeners.
+     * @return true if there were any pending updates.
+     */
+    private boolean applyPendingUpdates() {
+        if (mPendingUpdates.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < mPendingUpdates.size(); i++) {
+            applyUpdate(mPendingUpdates.get(i));
+        }
+        mPendingUpdates.clear();
+        return true;
+    }
+
+    private void applyUpdate(Call call) {
+        InCallMetrics.getInstance().increment(InCallMetrics.CALL_LIST_UPDATES);
         PhoneAccountHandle ph = call.getAccountHandle();
-        Log.d(this, "onUpdate - " + call  + " ph:" + ph);
+        Log.d(this, "onUpdate - %s ph:%s", call, ph);
         if (call.mIsActiveSub && ph != null && (!ph.getId().equals("E"))) {
             int sub = call.getSubId();
-            Log.i(this, "onUpdate - sub:" + sub + " mSubId:" + mSubId);
+            if (Log.DEBUG) {
+                Log.d(this, "onUpdate - sub:%d mSubId:%d", sub, mSubId);
+            }
             if(sub != mSubId) {
                 setActiveSubscription(sub);
             }
         }
         onUpdateCall(call);
-        notifyGenericListeners();
     }
 
     public void notifyCallUpdateListeners(Call call) {
-        final List<CallUpdateListener> listeners = mCallUpdateListenerMap.get(call.getId());
-        if (listeners != null) {
-            for (CallUpdateListener listener : listeners) {
-                listener.onCallChanged(call);
-            }
+        final int changes = call.takeChanges();
+        if (changes == 0) {
+            return;
         }
+        mCallUpdateListeners.notify(call, changes);
     }
 
     /**
-     * Add a call update listener for a call id.
+     * Add a call update listener for a call id. The listener is notified of all changes.
      *
-     * @param callId The call id to get updates for.
+     * @param callId The numeric id of the call to get updates for, see
+     *     {@link Call#getNumericId()}.
      * @param listener The listener to add.
      */
-    public void addCallUpdateListener(String callId, CallUpdateListener listener) {
-        List<CallUpdateListener> listeners = mCallUpdateListenerMap.get(callId);
-        if (listeners == null) {
-            listeners = new CopyOnWriteArrayList<CallUpdateListener>();
-            mCallUpdateListenerMap.put(callId, listeners);
-        }
-        listeners.add(listener);
+    public void addCallUpdateListener(int callId, CallUpdateListener listener) {
+        addCallUpdateListener(callId, listener, Call.Changes.ALL);
+    }
+
+    /**
+     * Add a call update listener for a call id which is only notified when one of the fields
+     * in the given mask changes. Registrations are dropped automatically once the call is
+     * finished.
+     *
+     * @param callId The numeric id of the call to get updates for, see
+     *     {@link Call#getNumericId()}.
+     * @param listener The listener to add.
+     * @param changeMask The {@link Call.Changes} bits the listener is interested in.
+     */
+    public void addCallUpdateListener(int callId, CallUpdateListener listener,
+            int changeMask) {
+        mCallUpdateListeners.add(callId, listener, changeMask);
     }
 
     /**
      * Remove a call update listener for a call id.
      *
-     * @param callId The call id to remove the listener for.
+     * @param callId The numeric id of the call to remove the listener for.
      * @param listener The listener to remove.
      */
-    public void removeCallUpdateListener(String callId, CallUpdateListener listener) {
-        List<CallUpdateListener> listeners = mCallUpdateListenerMap.get(callId);
-        if (listeners != null) {
-            listeners.remove(listener);
-        }
+    public void removeCallUpdateListener(int callId, CallUpdateListener listener) {
+        mCallUpdateListeners.remove(callId, listener);
     }
 
     public void addListener(Listener listener) {
@@ -358,7 +547,8 @@ public class CallList implements InCallPhoneListener {
      * @return The first call with the specified state.
      */
     public Call getVideoUpgradeRequestCall() {
-        for(Call call : mCallById.values()) {
+        for (int i = 0; i < mCallById.size(); i++) {
+            final Call call = mCallById.valueAt(i);
             if (call.getSessionModificationState() ==
                     Call.SessionModificationState.RECEIVED_UPGRADE_TO_VIDEO_REQUEST) {
                 return call;
@@ -367,7 +557,33 @@ public class CallList implements InCallPhoneListener {
         return null;
     }
 
+    /**
+     * Returns an immutable snapshot of the call list at its current version. The snapshot is
+     * only rebuilt when the call list has changed since the last request, so all listeners
+     * notified of the same change share the same instance.
+     */
+    public CallListSnapshot getSnapshot() {
+        if (mSnapshot == null || mSnapshot.getVersion() != mVersion) {
+            mSnapshot = new CallListSnapshot(this, mVersion);
+        }
+        return mSnapshot;
+    }
+
+    /**
+     * @return The current version of the call list.
+     */
+    public long getVersion() {
+        return mVersion;
+    }
+
     public Call getCallById(String callId) {
+        return getCallById(Call.toNumericId(callId));
+    }
+
+    /**
+     * @param callId The numeric id of the call, see {@link Call#getNumericId()}.
+     */
+    public Call getCallById(int callId) {
         return mCallById.get(callId);
     }
 
@@ -376,6 +592,10 @@ public class CallList implements InCallPhoneListener {
     }
 
     public List<String> getTextResponses(String callId) {
+        return getTextResponses(Call.toNumericId(callId));
+    }
+
+    public List<String> getTextResponses(int callId) {
         return mCallTextReponsesMap.get(callId);
     }
 
@@ -404,20 +624,11 @@ public class CallList implements InCallPhoneListener {
             return getCallWithState(state, positionToFind, getActiveSubscription());
         }
 
-        Call retval = null;
-        int position = 0;
-        for (Call call : mCallById.values()) {
-            if (call.getState() == state) {
-                if (position >= positionToFind) {
-                    retval = call;
-                    break;
-                } else {
-                    position++;
-                }
-            }
+        final List<Call> calls = mCallsByState.get(state);
+        if (calls == null || positionToFind >= calls.size()) {
+            return null;
         }
-
-        return retval;
+        return calls.get(positionToFind);
     }
 
     /**
@@ -427,14 +638,16 @@ public class CallList implements InCallPhoneListener {
      * there can be no active calls, so this is relatively safe thing to do.
      */
     public void clearOnDisconnect() {
-        for (Call call : mCallById.values()) {
+        mPendingUpdates.clear();
+        for (int i = 0; i < mCallById.size(); i++) {
+            final Call call = mCallById.valueAt(i);
             final int state = call.getState();
             if (state != Call.State.IDLE &&
                     state != Call.State.INVALID &&
                     state != Call.State.DISCONNECTED) {
 
                 call.setState(Call.State.DISCONNECTED);
-                call.setDisconnectCause(new DisconnectCause(DisconnectCause.UNKNOWN));
+                call.setDisconnectCause(Call.UNKNOWN_DISCONNECT_CAUSE);
                 updateCallInMap(call);
             }
         }
@@ -447,9 +660,9 @@ public class CallList implements InCallPhoneListener {
      * @param call The call to update.
      */
     private void onUpdateCall(Call call) {
-        Log.d(this, "\t" + call);
+        Log.d(this, "\t", call);
         if (updateCallInMap(call)) {
-            Log.i(this, "onUpdate - " + call);
+            Log.d(this, "onUpdate - ", call);
         }
         updateCallTextMap(call, call.getCannedSmsResponses());
         notifyCallUpdateListeners(call);
@@ -460,12 +673,19 @@ public class CallList implements InCallPhoneListener {
      * It is up to the listeners to call back to determine what changed.
      */
     private void notifyGenericListeners() {
+        FlightRecorder.getInstance().record(FlightRecorder.EVENT_CALL_LIST_CHANGE,
+                FlightRecorder.NO_CALL, mListeners.size(), 0);
+        final long startNanos = SystemClock.elapsedRealtimeNanos();
         for (Listener listener : mListeners) {
             listener.onCallListChange(this);
         }
+        InCallMetrics.getInstance().recordDuration(InCallMetrics.CALL_LIST_DISPATCH, startNanos);
     }
 
     private void notifyListenersOfDisconnect(Call call) {
+        FlightRecorder.getInstance().record(FlightRecorder.EVENT_CALL_LIST_DISCONNECT,
+                call.getNumericId(), call.getDisconnectCause().getCode(), 0);
+        InCallMetrics.getInstance().increment(InCallMetrics.CALL_LIST_DISCONNECTS);
         for (Listener listener : mListeners) {
             listener.onDisconnect(call);
         }
@@ -482,32 +702,130 @@ public class CallList implements InCallPhoneListener {
 
         if (call.getState() == Call.State.DISCONNECTED) {
             // update existing (but do not add!!) disconnected calls
-            if (mCallById.containsKey(call.getId())) {
+            if (mCallById.get(call.getNumericId()) != null) {
 
                 // For disconnected calls, we want to keep them alive for a few seconds so that the
                 // UI has a chance to display anything it needs when a call is disconnected.
 
-                // Set up a timer to destroy the call after X seconds.
-                final Message msg = mHandler.obtainMessage(EVENT_DISCONNECTED_TIMEOUT, call);
-                mHandler.sendMessageDelayed(msg, getDelayForDisconnect(call));
+                // Set up a timer to destroy the call after X seconds. Repeated updates for
+                // the same call share a single timer.
+                mDisconnectedCallScheduler.schedule(call, getDelayForDisconnect(call));
 
-                mCallById.put(call.getId(), call);
+                mCallById.put(call.getNumericId(), call);
                 mCallByTelecommCall.put(call.getTelecommCall(), call);
+                indexCallState(call);
+                indexCallSub(call);
                 updated = true;
             }
         } else if (!isCallDead(call)) {
-            mCallById.put(call.getId(), call);
+            mCallById.put(call.getNumericId(), call);
             mCallByTelecommCall.put(call.getTelecommCall(), call);
+            indexCallState(call);
+            indexCallSub(call);
             updated = true;
-        } else if (mCallById.containsKey(call.getId())) {
-            mCallById.remove(call.getId());
+        } else if (mCallById.get(call.getNumericId()) != null) {
+            mCallById.remove(call.getNumericId());
             mCallByTelecommCall.remove(call.getTelecommCall());
+            unindexCallState(call);
+            unindexCallSub(call);
+            mDisconnectedCallScheduler.cancel(call);
             updated = true;
         }
 
+        if (updated) {
+            mVersion++;
+        }
         return updated;
     }
 
+    /**
+     * Files the call under its current state in {@link #mCallsByState}, moving it out of the
+     * bucket for its previous state if the state has changed.
+     */
+    private void indexCallState(Call call) {
+        final int state = call.getState();
+        final int index = mIndexedStateById.indexOfKey(call.getNumericId());
+        if (index >= 0) {
+            final int indexedState = mIndexedStateById.valueAt(index);
+            if (indexedState == state) {
+                return;
+            }
+            mCallsByState.get(indexedState).remove(call);
+        }
+
+        List<Call> calls = mCallsByState.get(state);
+        if (calls == null) {
+            calls = new ArrayList<>();
+            mCallsByState.put(state, calls);
+        }
+        calls.add(call);
+        mIndexedStateById.put(call.getNumericId(), state);
+    }
+
+    /**
+     * Counts the call under the subscription of its phone account in
+     * {@link #mLiveCallCountBySub}, moving it if the subscription has changed.
+     */
+    private void indexCallSub(Call call) {
+        final int subId = call.getAccountSubId();
+        final int index = mIndexedSubById.indexOfKey(call.getNumericId());
+        if (index >= 0) {
+            final int indexedSub = mIndexedSubById.valueAt(index);
+            if (indexedSub == subId) {
+                return;
+            }
+            adjustLiveCallCount(indexedSub, -1);
+        }
+        mIndexedSubById.put(call.getNumericId(), subId);
+        adjustLiveCallCount(subId, 1);
+    }
+
+    /**
+     * Removes the call from {@link #mLiveCallCountBySub}.
+     */
+    private void unindexCallSub(Call call) {
+        final int index = mIndexedSubById.indexOfKey(call.getNumericId());
+        if (index >= 0) {
+            adjustLiveCallCount(mIndexedSubById.valueAt(index), -1);
+            mIndexedSubById.removeAt(index);
+        }
+    }
+
+    private void adjustLiveCallCount(int subId, int delta) {
+        if (subId == SubscriptionManager.INVALID_SUBSCRIPTION_ID) {
+            return;
+        }
+        final int count = mLiveCallCountBySub.get(subId) + delta;
+        if (count > 0) {
+            mLiveCallCountBySub.put(subId, count);
+        } else {
+            mLiveCallCountBySub.delete(subId);
+        }
+    }
+
+    /**
+     * @return true if any subscription other than the given one has a live call.
+     */
+    private boolean hasLiveCallOnOtherSub(int subId) {
+        for (int i = 0; i < mLiveCallCountBySub.size(); i++) {
+            if (mLiveCallCountBySub.keyAt(i) != subId) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Removes the call from {@link #mCallsByState}.
+     */
+    private void unindexCallState(Call call) {
+        final int index = mIndexedStateById.indexOfKey(call.getNumericId());
+        if (index >= 0) {
+            mCallsByState.get(mIndexedStateById.valueAt(index)).remove(call);
+            mIndexedStateById.removeAt(index);
+        }
+    }
+
     private int getDelayForDisconnect(Call call) {
         Preconditions.checkState(call.getState() == Call.State.DISCONNECTED);
 
@@ -540,10 +858,10 @@ public class CallList implements InCallPhoneListener {
 
         if (!isCallDead(call)) {
             if (textResponses != null) {
-                mCallTextReponsesMap.put(call.getId(), textResponses);
+                mCallTextReponsesMap.put(call.getNumericId(), textResponses);
             }
-        } else if (mCallById.containsKey(call.getId())) {
-            mCallTextReponsesMap.remove(call.getId());
+        } else if (mCallById.get(call.getNumericId()) != null) {
+            mCallTextReponsesMap.remove(call.getNumericId());
         }
     }
 
@@ -556,9 +874,14 @@ public class CallList implements InCallPhoneListener {
      * Sets up a call for deletion and notifies listeners of change.
      */
     private void finishDisconnectedCall(Call call) {
+        mPendingUpdates.remove(call);
+        InCallTrace.endCall(call);
+        CallLatencyTracker.getInstance().onCallRemoved(call);
         call.setState(Call.State.IDLE);
         updateCallInMap(call);
         notifyGenericListeners();
+        // Nobody can be interested in updates for this call anymore.
+        mCallUpdateListeners.purge(call.getNumericId());
         if (!hasAnyLiveCall()) {
            // update to Telecomm service that no active sub
            TelecomAdapter.getInstance().switchToOtherActiveSub(null, false);
@@ -572,7 +895,8 @@ public class CallList implements InCallPhoneListener {
      * @param rotation The new rotation angle (in degrees).
      */
     public void notifyCallsOfDeviceRotation(int rotation) {
-        for (Call call : mCallById.values()) {
+        for (int i = 0; i < mCallById.size(); i++) {
+            final Call call = mCallById.valueAt(i);
             if (call.getVideoCall() != null) {
                 call.getVideoCall().setDeviceOrientation(rotation);
             }
@@ -582,14 +906,21 @@ public class CallList implements InCallPhoneListener {
     /**
      * Handles the timeout for destroying disconnected calls.
      */
+    private final CallExpiryScheduler mDisconnectedCallScheduler = new CallExpiryScheduler(
+            new CallExpiryScheduler.Callback() {
+                @Override
+                public void onCallExpired(Call call) {
+                    finishDisconnectedCall(call);
+                }
+            });
+
+    /**
+     * Handles active subscription change notifications.
+     */
     private Handler mHandler = new Handler() {
         @Override
         public void handleMessage(Message msg) {
             switch (msg.what) {
-                case EVENT_DISCONNECTED_TIMEOUT:
-                    Log.d(this, "EVENT_DISCONNECTED_TIMEOUT ", msg.obj);
-                    finishDisconnectedCall((Call) msg.obj);
-                    break;
                 case EVENT_NOTIFY_CHANGE:
                     Log.d(this, "EVENT_NOTIFY_CHANGE: ");
                     notifyGenericListeners();
@@ -641,8 +972,14 @@ public class CallList implements InCallPhoneListener {
     }
 
     public interface CallUpdateListener {
-        // TODO: refactor and limit arg to be call state.  Caller info is not needed.
-        public void onCallChanged(Call call);
+        /**
+         * Called when a call the listener registered for has changed.
+         *
+         * @param call The call that changed.
+         * @param changes A mask of the {@link Call.Changes} bits that changed since the last
+         *     notification.
+         */
+        public void onCallChanged(Call call, int changes);
     }
 
     /**
@@ -667,6 +1004,7 @@ public class CallList implements InCallPhoneListener {
         if (subId != mSubId) {
             Log.i(this, "setActiveSubscription, old = " + mSubId + " new = " + subId);
             mSubId = subId;
+            mVersion++;
             final Message msg = mHandler.obtainMessage(EVENT_NOTIFY_CHANGE, null);
             mHandler.sendMessage(msg);
         }
@@ -676,18 +1014,12 @@ public class CallList implements InCallPhoneListener {
      * Returns true, if any voice call in ACTIVE on the provided subscription.
      */
     public boolean hasAnyLiveCall(int subId) {
-        for (Call call : mCallById.values()) {
-            PhoneAccountHandle ph = call.getAccountHandle();
-            try {
-                if (!isCallDead(call) && ph != null && (Long.parseLong(ph.getId()) == subId)) {
-                    Log.i(this, "hasAnyLiveCall sub = " + subId);
-                    return true;
-                }
-            } catch (NumberFormatException e) {
-                Log.w(this,"Sub Id is not a number " + e);
-            }
+        if (subId != SubscriptionManager.INVALID_SUBSCRIPTION_ID
+                && mLiveCallCountBySub.get(subId) > 0) {
+            Log.d(this, "hasAnyLiveCall sub = ", subId);
+            return true;
         }
-        Log.i(this, "no active call ");
+        Log.d(this, "no active call ");
         return false;
     }
 
@@ -695,13 +1027,14 @@ public class CallList implements InCallPhoneListener {
      * Returns true, if any call in ACTIVE on the provided subscription.
      */
     public boolean hasAnyLiveCall() {
-        for (Call call : mCallById.values()) {
+        for (int i = 0; i < mCallById.size(); i++) {
+            final Call call = mCallById.valueAt(i);
             if (!isCallDead(call)) {
-                Log.i(this, "hasAnyLiveCall call = " + call);
+                Log.d(this, "hasAnyLiveCall call = ", call);
                 return true;
             }
         }
-        Log.i(this, "no active call ");
+        Log.d(this, "no active call ");
         return false;
     }
 
@@ -715,6 +1048,10 @@ public class CallList implements InCallPhoneListener {
         int activeSub = getActiveSubscription();
         boolean subSwitched = false;
 
+        if (!hasLiveCallOnOtherSub(activeSub)) {
+            return false;
+        }
+
         for (int i = 0; i < PHONE_COUNT; i++) {
             int[] subId = getSubId(i);
             if ((subId[0] != activeSub) && hasAnyLiveCall(subId[0])) {
@@ -736,7 +1073,7 @@ public class CallList implements InCallPhoneListener {
      */
     public boolean isAnyOtherSubActive(int currentSub) {
         boolean result = false;
-        if(!isDsdaEnabled()) {
+        if(!isDsdaEnabled() || !hasLiveCallOnOtherSub(currentSub)) {
             return false;
         }
 
@@ -745,7 +1082,7 @@ public class CallList implements InCallPhoneListener {
             int[] subId = getSubId(phoneId);
 
             if ((subId[0] != currentSub) && hasAnyLiveCall(subId[0])) {
-                Log.d(this, "Live call found on another sub = " + subId[0]);
+                Log.d(this, "Live call found on another sub = ", subId[0]);
                 result = true;
                 break;
             }
@@ -760,17 +1097,22 @@ public class CallList implements InCallPhoneListener {
     public Call getCallWithState(int state, int positionToFind, int subId) {
         Call retval = null;
         int position = 0;
-        for (Call call : mCallById.values()) {
+        final List<Call> calls = mCallsByState.get(state);
+        if (calls == null) {
+            return null;
+        }
+        for (Call call : calls) {
             PhoneAccountHandle ph = call.getAccountHandle();
             if ((call.getState() == state) && ((ph == null) || ph.getId().equals("E") ||
                     (call.getSubId() == subId))) {
-                if ((ph == null) && (!call.getTelecommCall().getChildren().isEmpty()) &&
-                        (call.getTelecommCall().getChildren().size() > 1)) {
+                if ((ph == null) && (call.getTelecommCall().getChildren().size() > 1)) {
                     List<android.telecom.Call> children = call.getTelecommCall().getChildren();
                     android.telecom.Call child = children.get(0);
-                    PhoneAccountHandle childph = child.getDetails().getAccountHandle();
-                    if (Long.parseLong(childph.getId()) == subId) {
-                        Log.d(this,"getCallWithState:retval = "+call);
+                    Call childCall = getCallByTelecommCall(child);
+                    int childSubId = (childCall != null) ? childCall.getAccountSubId()
+                            : Call.parseSubId(child.getDetails().getAccountHandle());
+                    if (childSubId == subId) {
+                        Log.d(this, "getCallWithState:retval = ", call);
                         retval = call;
                         break;
                     } else {
@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.incallui;
+
+import com.android.incallui.InCallPresenter.InCallState;
+
+/**
+ * Immutable view of the {@link CallList} at a given version. The calls that listeners usually
+ * derive from the call list (incoming, outgoing, primary, secondary, etc.) are resolved once when
+ * the snapshot is taken, so that every listener notified of the same change reads the same
+ * precomputed values instead of querying the call list again.
+ *
+ * Snapshots are obtained through {@link CallList#getSnapshot()}. Two snapshots with the same
+ * version describe the same call list contents.
+ */
+public final class CallListSnapshot {
+
+    private final long mVersion;
+
+    private final Call mIncomingCall;
+    private final Call mWaitingForAccountCall;
+    private final Call mPendingOutgoingCall;
+    private final Call mOutgoingCall;
+    private final Call mActiveCall;
+    private final Call mBackgroundCall;
+    private final Call mSecondBackgroundCall;
+    private final Call mDisconnectingCall;
+    private final Call mDisconnectedCall;
+    private final Call mVideoUpgradeRequestCall;
+
+    private final InCallState mInCallState;
+    private final Call mPrimaryCall;
+    private final Call mSecondaryCall;
+
+    /* package */ CallListSnapshot(CallList callList, long version) {
+        mVersion = version;
+
+        mIncomingCall = callList.getIncomingCall();
+        mWaitingForAccountCall = callList.getWaitingForAccountCall();
+        mPendingOutgoingCall = callList.getPendingOutgoingCall();
+        mOutgoingCall = callList.getOutgoingCall();
+        mActiveCall = callList.getActiveCall();
+        mBackgroundCall = callList.getBackgroundCall();
+        mSecondBackgroundCall = callList.getSecondBackgroundCall();
+        mDisconnectingCall = callList.getDisconnectingCall();
+        mDisconnectedCall = callList.getDisconnectedCall();
+        mVideoUpgradeRequestCall = callList.getVideoUpgradeRequestCall();
+
+        mInCallState = computeInCallState();
+        mPrimaryCall = computePrimaryCall(mInCallState);
+        mSecondaryCall = computeSecondaryCall(mInCallState, mPrimaryCall);
+    }
+
+    /**
+     * @return The version of the call list this snapshot was taken at. Versions increase
+     *         monotonically with every change to the call list.
+     */
+    public long getVersion() {
+        return mVersion;
+    }
+
+    public Call getIncomingCall() {
+        return mIncomingCall;
+    }
+
+    public Call getWaitingForAccountCall() {
+        return mWaitingForAccountCall;
+    }
+
+    public Call getPendingOutgoingCall() {
+        return mPendingOutgoingCall;
+    }
+
+    public Call getOutgoingCall() {
+        return mOutgoingCall;
+    }
+
+    public Call getActiveCall() {
+        return mActiveCall;
+    }
+
+    public Call getBackgroundCall() {
+        return mBackgroundCall;
+    }
+
+    public Call getSecondBackgroundCall() {
+        return mSecondBackgroundCall;
+    }
+
+    public Call getDisconnectingCall() {
+        return mDisconnectingCall;
+    }
+
+    public Call getDisconnectedCall() {
+        return mDisconnectedCall;
+    }
+
+    public Call getVideoUpgradeRequestCall() {
+        return mVideoUpgradeRequestCall;
+    }
+
+    public Call getActiveOrBackgroundCall() {
+        return mActiveCall != null ? mActiveCall : mBackgroundCall;
+    }
+
+    /**
+     * @return The in-call state the call list would put the UI in.
+     * @see InCallPresenter#getPotentialStateFromCallList(CallList)
+     */
+    public InCallState getInCallState() {
+        return mInCallState;
+    }
+
+    /**
+     * Returns the call that should be shown as the primary call for the given in-call state.
+     * The value for {@link #getInCallState()} is precomputed.
+     */
+    public Call getPrimaryCall(InCallState state) {
+        return state == mInCallState ? mPrimaryCall : computePrimaryCall(state);
+    }
+
+    /**
+     * Returns the call that should be shown as the secondary call for the given in-call state.
+     * The value for {@link #getInCallState()} is precomputed.
+     */
+    public Call getSecondaryCall(InCallState state) {
+        return state == mInCallState ? mSecondaryCall
+                : computeSecondaryCall(state, computePrimaryCall(state));
+    }
+
+    private InCallState computeInCallState() {
+        if (mIncomingCall != null) {
+            return InCallState.INCOMING;
+        } else if (mWaitingForAccountCall != null) {
+            return InCallState.WAITING_FOR_ACCOUNT;
+        } else if (mPendingOutgoingCall != null) {
+            return InCallState.PENDING_OUTGOING;
+        } else if (mOutgoingCall != null) {
+            return InCallState.OUTGOING;
+        } else if (mActiveCall != null ||
+                mBackgroundCall != null ||
+                mDisconnectedCall != null ||
+                mDisconnectingCall != null) {
+            return InCallState.INCALL;
+        }
+        return InCallState.NO_CALLS;
+    }
+
+    private Call computePrimaryCall(InCallState state) {
+        if (state == InCallState.INCOMING) {
+            return mIncomingCall;
+        } else if (state == InCallState.PENDING_OUTGOING || state == InCallState.OUTGOING) {
+            return mOutgoingCall != null ? mOutgoingCall : mPendingOutgoingCall;
+        } else if (state == InCallState.INCALL) {
+            return getCallToDisplay(null, false);
+        }
+        return null;
+    }
+
+    private Call computeSecondaryCall(InCallState state, Call primary) {
+        if (state == InCallState.PENDING_OUTGOING || state == InCallState.OUTGOING) {
+            // getCallToDisplay doesn't go through outgoing or incoming calls. It will return the
+            // highest priority call to display as the secondary call.
+            return getCallToDisplay(null, true);
+        } else if (state == InCallState.INCALL) {
+            return getCallToDisplay(primary, true);
+        }
+        return null;
+    }
+
+    /**
+     * Get the highest priority call to display.
+     * Goes through the calls and chooses which to return based on priority of which type of call
+     * to display to the user. Callers can use the "ignore" feature to get the second best call
+     * by passing a previously found primary call as ignore.
+     *
+     * @param ignore A call to ignore if found.
+     */
+    private Call getCallToDisplay(Call ignore, boolean skipDisconnected) {
+        // Active calls come second.  An active call always gets precedent.
+        if (mActiveCall != null && mActiveCall != ignore) {
+            return mActiveCall;
+        }
+
+        // Disconnected calls get primary position if there are no active calls
+        // to let user know quickly what call has disconnected. Disconnected
+        // calls are very short lived.
+        if (!skipDisconnected) {
+            if (mDisconnectingCall != null && mDisconnectingCall != ignore) {
+                return mDisconnectingCall;
+            }
+            if (mDisconnectedCall != null && mDisconnectedCall != ignore) {
+                return mDisconnectedCall;
+            }
+        }
+
+        // Then we go to background call (calls on hold)
+        if (mBackgroundCall != null && mBackgroundCall != ignore) {
+            return mBackgroundCall;
+        }
+
+        // Lastly, we go to a second background call.
+        return mSecondBackgroundCall;
+    }
+}
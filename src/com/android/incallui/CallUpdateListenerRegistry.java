@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.incallui;
+
+import com.android.incallui.CallList.CallUpdateListener;
+
+import android.util.SparseArray;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Holds the {@link CallUpdateListener}s registered for each call, keyed by
+ * {@link Call#getNumericId()}. Registrations are bound to
+ * the lifetime of the call: {@link CallList} purges all registrations for a call when the call
+ * is finished, so that the registry does not grow with every call ever handled.
+ */
+public class CallUpdateListenerRegistry {
+
+    private final SparseArray<List<Registration>> mRegistrations = new SparseArray<>();
+    private int mPurgedCount = 0;
+
+    /**
+     * Adds a listener for a call id.
+     *
+     * @param callId The numeric id of the call to get updates for.
+     * @param listener The listener to add.
+     * @param changeMask The {@link Call.Changes} bits the listener is interested in.
+     */
+    public void add(int callId, CallUpdateListener listener, int changeMask) {
+        List<Registration> registrations = mRegistrations.get(callId);
+        if (registrations == null) {
+            registrations = new CopyOnWriteArrayList<Registration>();
+            mRegistrations.put(callId, registrations);
+        }
+        registrations.add(new Registration(listener, changeMask));
+    }
+
+    /**
+     * Removes a listener for a call id.
+     */
+    public void remove(int callId, CallUpdateListener listener) {
+        final List<Registration> registrations = mRegistrations.get(callId);
+        if (registrations == null) {
+            return;
+        }
+        for (Registration registration : registrations) {
+            if (registration.mListener == listener) {
+                registrations.remove(registration);
+                break;
+            }
+        }
+        if (registrations.isEmpty()) {
+            mRegistrations.remove(callId);
+        }
+    }
+
+    /**
+     * Notifies the listeners of the call which subscribed to any of the changed bits.
+     *
+     * @param call The call that changed.
+     * @param changes The {@link Call.Changes} bits that changed.
+     */
+    public void notify(Call call, int changes) {
+        final List<Registration> registrations = mRegistrations.get(call.getNumericId());
+        if (registrations == null) {
+            return;
+        }
+        for (Registration registration : registrations) {
+            if ((registration.mChangeMask & changes) != 0) {
+                registration.mListener.onCallChanged(call, changes);
+            }
+        }
+    }
+
+    /**
+     * Drops all registrations for a call id. Called once the call is finished.
+     */
+    public void purge(int callId) {
+        final List<Registration> registrations = mRegistrations.get(callId);
+        if (registrations != null) {
+            mPurgedCount += registrations.size();
+            mRegistrations.remove(callId);
+        }
+    }
+
+    /**
+     * @return The number of registrations of the calls which are not finished yet.
+     */
+    public int getLiveCount() {
+        int count = 0;
+        for (int i = 0; i < mRegistrations.size(); i++) {
+            count += mRegistrations.valueAt(i).size();
+        }
+        return count;
+    }
+
+    /**
+     * @return The number of registrations dropped because their call was finished.
+     */
+    public int getPurgedCount() {
+        return mPurgedCount;
+    }
+
+    private static class Registration {
+        final CallUpdateListener mListener;
+        final int mChangeMask;
+
+        Registration(CallUpdateListener listener, int changeMask) {
+            mListener = listener;
+            mChangeMask = changeMask;
+        }
+    }
+}
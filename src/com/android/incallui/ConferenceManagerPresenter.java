@@ -60,7 +60,7 @@ public class ConferenceManagerPresenter
         if (getUi().isFragmentVisible()) {
             Log.v(this, "onStateChange" + newState);
             if (newState == InCallState.INCALL) {
-                final Call call = callList.getActiveOrBackgroundCall();
+                final Call call = callList.getSnapshot().getActiveOrBackgroundCall();
                 if (call != null && call.isConferenceCall()) {
                     Log.v(this, "Number of existing calls is " +
                             String.valueOf(call.getChildCallIds().size()));
@@ -105,7 +105,8 @@ public class ConferenceManagerPresenter
      */
     private void update(CallList callList) {
         // callList is non null, but getActiveOrBackgroundCall() may return null
-        final Call currentCall = callList.getActiveOrBackgroundCall();
+        final CallListSnapshot snapshot = callList.getSnapshot();
+        final Call currentCall = snapshot.getActiveOrBackgroundCall();
         if (currentCall == null) {
             return;
         }
@@ -120,8 +121,8 @@ public class ConferenceManagerPresenter
         // Users can split out a call from the conference call if there either the active call
         // or the holding call is empty. If both are filled at the moment, users can not split out
         // another call.
-        final boolean hasActiveCall = (callList.getActiveCall() != null);
-        final boolean hasHoldingCall = (callList.getBackgroundCall() != null);
+        final boolean hasActiveCall = (snapshot.getActiveCall() != null);
+        final boolean hasHoldingCall = (snapshot.getBackgroundCall() != null);
         boolean canSeparate = !(hasActiveCall && hasHoldingCall);
 
         getUi().update(mContext, calls, canSeparate);
@@ -20,6 +20,8 @@ import android.content.Context;
 import android.net.Uri;
 import android.telecom.PhoneCapabilities;
 import android.text.TextUtils;
+import android.util.SparseArray;
+import android.util.SparseBooleanArray;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -36,11 +38,7 @@ import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 
@@ -185,9 +183,10 @@ public class ConferenceParticipantListAdapter extends BaseAdapter {
     private List<ParticipantInfo> mConferenceParticipants = new ArrayList<>();
 
     /**
-     * Hashmap to make accessing participant info by call Id faster.
+     * Map to make accessing participant info by call Id faster, keyed by
+     * {@link Call#getNumericId()}.
      */
-    private final HashMap<String, ParticipantInfo> mParticipantsByCallId = new HashMap<>();
+    private final SparseArray<ParticipantInfo> mParticipantsByCallId = new SparseArray<>();
 
     /**
      * The context.
@@ -209,6 +208,13 @@ public class ConferenceParticipantListAdapter extends BaseAdapter {
      */
     private boolean mParentCanSeparate;
 
+    /**
+     * Callback for the contact lookups of all the rows. The same instance is used for every bind
+     * so that {@link ContactInfoCache} holds a single callback per participant, however often
+     * the row is rebound while its lookup is in flight.
+     */
+    private final ContactLookupCallback mContactLookupCallback = new ContactLookupCallback(this);
+
     /**
      * Creates an instance of the ConferenceParticipantListAdapter.
      *
@@ -277,12 +283,10 @@ public class ConferenceParticipantListAdapter extends BaseAdapter {
      * @param call The new call information.
      */
     public void refreshCall(Call call) {
-        String callId = call.getId();
-
-        if (mParticipantsByCallId.containsKey(callId)) {
-            ParticipantInfo participantInfo = mParticipantsByCallId.get(callId);
+        ParticipantInfo participantInfo = mParticipantsByCallId.get(call.getNumericId());
+        if (participantInfo != null) {
             participantInfo.setCall(call);
-            refreshView(callId);
+            refreshView(call.getId());
         }
     }
 
@@ -333,7 +337,7 @@ public class ConferenceParticipantListAdapter extends BaseAdapter {
         if (!participantInfo.isCacheLookupComplete()) {
             cache.findInfo(participantInfo.getCall(),
                     participantInfo.getCall().getState() == Call.State.INCOMING,
-                    new ContactLookupCallback(this));
+                    mContactLookupCallback);
         }
 
         int callCapabilities = call.getTelecommCall().getDetails().getCallCapabilities();
@@ -360,8 +364,8 @@ public class ConferenceParticipantListAdapter extends BaseAdapter {
      * @param entry The new contact info.
      */
     /* package */ void updateContactInfo(String callId, ContactCacheEntry entry) {
-        if (mParticipantsByCallId.containsKey(callId)) {
-            ParticipantInfo participantInfo = mParticipantsByCallId.get(callId);
+        ParticipantInfo participantInfo = mParticipantsByCallId.get(Call.toNumericId(callId));
+        if (participantInfo != null) {
             participantInfo.setContactCacheEntry(entry);
             participantInfo.setCacheLookupComplete(true);
             refreshView(callId);
@@ -435,40 +439,35 @@ public class ConferenceParticipantListAdapter extends BaseAdapter {
     private void updateParticipantInfo(List<Call> conferenceParticipants) {
         final ContactInfoCache cache = ContactInfoCache.getInstance(mContext);
         boolean newParticipantAdded = false;
-        HashSet<String> newCallIds = new HashSet<>(conferenceParticipants.size());
+        SparseBooleanArray newCallIds = new SparseBooleanArray(conferenceParticipants.size());
 
         // Update or add conference participant info.
         for (Call call : conferenceParticipants) {
-            String callId = call.getId();
-            newCallIds.add(callId);
+            int callId = call.getNumericId();
+            newCallIds.put(callId, true);
             ContactCacheEntry contactCache = cache.getInfo(callId);
             if (contactCache == null) {
                 contactCache = ContactInfoCache.buildCacheEntryFromCall(mContext, call,
                         call.getState() == Call.State.INCOMING);
             }
 
-            if (mParticipantsByCallId.containsKey(callId)) {
-                ParticipantInfo participantInfo = mParticipantsByCallId.get(callId);
+            ParticipantInfo participantInfo = mParticipantsByCallId.get(callId);
+            if (participantInfo != null) {
                 participantInfo.setCall(call);
                 participantInfo.setContactCacheEntry(contactCache);
             } else {
                 newParticipantAdded = true;
-                ParticipantInfo participantInfo = new ParticipantInfo(call, contactCache);
+                participantInfo = new ParticipantInfo(call, contactCache);
                 mConferenceParticipants.add(participantInfo);
-                mParticipantsByCallId.put(call.getId(), participantInfo);
+                mParticipantsByCallId.put(callId, participantInfo);
             }
         }
 
         // Remove any participants that no longer exist.
-        Iterator<Map.Entry<String, ParticipantInfo>> it =
-                mParticipantsByCallId.entrySet().iterator();
-        while (it.hasNext()) {
-            Map.Entry<String, ParticipantInfo> entry = it.next();
-            String existingCallId = entry.getKey();
-            if (!newCallIds.contains(existingCallId)) {
-                ParticipantInfo existingInfo = entry.getValue();
-                mConferenceParticipants.remove(existingInfo);
-                it.remove();
+        for (int i = mParticipantsByCallId.size() - 1; i >= 0; i--) {
+            if (!newCallIds.get(mParticipantsByCallId.keyAt(i))) {
+                mConferenceParticipants.remove(mParticipantsByCallId.valueAt(i));
+                mParticipantsByCallId.removeAt(i);
             }
         }
 
@@ -21,29 +21,52 @@ import android.graphics.Bitmap;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.provider.ContactsContract.Contacts;
 import android.provider.ContactsContract.CommonDataKinds.Phone;
 import android.telecom.TelecomManager;
 import android.text.TextUtils;
+import android.util.SparseArray;
+import android.util.SparseBooleanArray;
+import android.util.SparseIntArray;
+import android.util.SparseLongArray;
 
 import com.android.contacts.common.util.PhoneNumberHelper;
+import com.android.contacts.common.util.TelephonyManagerUtils;
 import com.android.incallui.service.PhoneNumberService;
 import com.android.incalluibind.ServiceFactory;
 import com.android.services.telephony.common.MoreStrings;
-import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
 
-import java.util.HashMap;
+import java.util.Locale;
 import java.util.Set;
 
 /**
  * Class responsible for querying Contact Information for Call objects. Can perform asynchronous
  * requests to the Contact Provider for information as well as respond synchronously for any data
- * that it currently has cached from previous queries. This class always gets called from the UI
+ * that it currently has cached from previous queries. Contacts found for earlier calls are kept
+ * by number in a {@link ContactNumberCache}. This class always gets called from the UI
  * thread so it does not need thread protection.
+ *
+ * A lookup runs in stages, merged into the entry of the call as they complete:
+ * <ul>
+ * <li>local: the contacts provider query of {@link CallerInfoAsyncQuery}.</li>
+ * <li>geo: the geocoded description of the number of incoming calls, which runs on its own
+ * worker thread concurrently with the local stage and fills the location of entries without a
+ * name.</li>
+ * <li>remote: the {@link PhoneNumberService}, only on a local miss so that the numbers of saved
+ * contacts are never sent out. It replaces CNAP names but never a local contact.</li>
+ * <li>photo: the contact or remote photo.</li>
+ * </ul>
+ * Numbers which recently had no match in the local and remote stages are remembered by the
+ * {@link ContactNumberCache}, and their later lookups only run the geo stage.
+ * The lookup of a call is cancelled when the call disconnects, and results which arrive after that
+ * are dropped.
  */
 public class ContactInfoCache implements ContactsAsyncHelper.OnImageLoadCompleteListener {
 
@@ -52,8 +75,31 @@ public class ContactInfoCache implements ContactsAsyncHelper.OnImageLoadComplete
 
     private final Context mContext;
     private final PhoneNumberService mPhoneNumberService;
-    private final HashMap<String, ContactCacheEntry> mInfoMap = Maps.newHashMap();
-    private final HashMap<String, Set<ContactInfoCacheCallback>> mCallBacks = Maps.newHashMap();
+    /** Cache entries and in-flight callbacks, keyed by {@link Call#getNumericId()}. */
+    private final SparseArray<ContactCacheEntry> mInfoMap = new SparseArray<>();
+    private final SparseArray<Set<ContactInfoCacheCallback>> mCallBacks = new SparseArray<>();
+    /** Complete entries of previous callers, kept across calls. */
+    private final ContactNumberCache mNumberCache;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    /** Runs the geo stage of the lookups. Created on first use and quit by {@link #clearCache}. */
+    private HandlerThread mGeoThread;
+    private Handler mGeoHandler;
+    /**
+     * Calls whose geo stage is in flight. The value is true once all the other stages are done,
+     * in which case the lookup completes with the geo stage.
+     */
+    private final SparseBooleanArray mPendingGeoLookups = new SparseBooleanArray();
+    /**
+     * Serial number of the geo stage in flight for each call, so that the result of a stage which
+     * was cancelled is not taken for the result of a later one.
+     */
+    private final SparseIntArray mGeoLookupSerials = new SparseIntArray();
+    private int mNextGeoLookupSerial = 0;
+    /** Results of the geo stage of the lookups in flight. */
+    private final SparseArray<String> mGeoDescriptions = new SparseArray<>();
+    /** Start times of the lookups in flight, from {@link SystemClock#elapsedRealtimeNanos()}. */
+    private final SparseLongArray mLookupStartNanos = new SparseLongArray();
 
     private static ContactInfoCache sCache = null;
 
@@ -67,9 +113,46 @@ public class ContactInfoCache implements ContactsAsyncHelper.OnImageLoadComplete
     private ContactInfoCache(Context context) {
         mContext = context;
         mPhoneNumberService = ServiceFactory.newPhoneNumberService(context);
+        mNumberCache = new ContactNumberCache(context);
+        InCallMetrics.getInstance().registerGauge("contact_cache.hit_rate_percent",
+                new InCallMetrics.Gauge() {
+                    @Override
+                    public long getValue() {
+                        final InCallMetrics metrics = InCallMetrics.getInstance();
+                        final long hits = metrics.getCount(InCallMetrics.CONTACT_CACHE_HITS);
+                        final long lookups = hits
+                                + metrics.getCount(InCallMetrics.CONTACT_CACHE_MISSES);
+                        return lookups == 0 ? 0 : hits * 100 / lookups;
+                    }
+                });
+        InCallMetrics.getInstance().registerGauge("contact_cache.pending_callbacks",
+                new InCallMetrics.Gauge() {
+                    @Override
+                    public long getValue() {
+                        long count = 0;
+                        for (int i = 0; i < mCallBacks.size(); i++) {
+                            count += mCallBacks.valueAt(i).size();
+                        }
+                        return count;
+                    }
+                });
+        InCallMetrics.getInstance().registerGauge("contact_cache.number_bytes",
+                new InCallMetrics.Gauge() {
+                    @Override
+                    public long getValue() {
+                        return mNumberCache.sizeBytes();
+                    }
+                });
     }
 
     public ContactCacheEntry getInfo(String callId) {
+        return getInfo(Call.toNumericId(callId));
+    }
+
+    /**
+     * @param callId The numeric id of the call, see {@link Call#getNumericId()}.
+     */
+    public ContactCacheEntry getInfo(int callId) {
         return mInfoMap.get(callId);
     }
 
@@ -86,6 +169,7 @@ public class ContactInfoCache implements ContactsAsyncHelper.OnImageLoadComplete
 
     private class FindInfoCallback implements CallerInfoAsyncQuery.OnQueryCompleteListener {
         private final boolean mIsIncoming;
+        private final long mStartNanos = SystemClock.elapsedRealtimeNanos();
 
         public FindInfoCallback(boolean isIncoming) {
             mIsIncoming = isIncoming;
@@ -93,6 +177,8 @@ public class ContactInfoCache implements ContactsAsyncHelper.OnImageLoadComplete
 
         @Override
         public void onQueryComplete(int token, Object cookie, CallerInfo callerInfo) {
+            InCallMetrics.getInstance().recordDuration(InCallMetrics.CONTACT_LOOKUP_LOCAL,
+                    mStartNanos);
             findInfoQueryComplete((Call) cookie, callerInfo, mIsIncoming, true);
         }
     }
@@ -102,6 +188,10 @@ public class ContactInfoCache implements ContactsAsyncHelper.OnImageLoadComplete
      * Returns the data through callback.  If callback is null, no response is made, however the
      * query is still performed and cached.
      *
+     * There is at most one lookup in flight per call: requests made while it runs join it. Its
+     * callbacks are kept in a set, so callers should pass the same callback instance each time
+     * they request the same call, which is then notified only once.
+     *
      * @param callback The function to call back when the call is found. Can be null.
      */
     public void findInfo(final Call call, final boolean isIncoming,
@@ -109,15 +199,16 @@ public class ContactInfoCache implements ContactsAsyncHelper.OnImageLoadComplete
         Preconditions.checkState(Looper.getMainLooper().getThread() == Thread.currentThread());
         Preconditions.checkNotNull(callback);
 
-        final String callId = call.getId();
+        final int callId = call.getNumericId();
         final ContactCacheEntry cacheEntry = mInfoMap.get(callId);
         Set<ContactInfoCacheCallback> callBacks = mCallBacks.get(callId);
 
         // If we have a previously obtained intermediate result return that now
         if (cacheEntry != null) {
+            InCallMetrics.getInstance().increment(InCallMetrics.CONTACT_CACHE_HITS);
             Log.d(TAG, "Contact lookup. In memory cache hit; lookup "
                     + (callBacks == null ? "complete" : "still running"));
-            callback.onContactInfoComplete(callId, cacheEntry);
+            callback.onContactInfoComplete(call.getId(), cacheEntry);
             // If no other callbacks are in flight, we're done.
             if (callBacks == null) {
                 return;
@@ -129,11 +220,88 @@ public class ContactInfoCache implements ContactsAsyncHelper.OnImageLoadComplete
             callBacks.add(callback);
             return;
         }
+
+        startLookup(call, isIncoming, callback);
+    }
+
+    /**
+     * Starts looking up the contact of a call which has just been added, before any UI asks for
+     * it, so that the contacts query, geocoding and photo decode overlap with the start of the
+     * in-call UI. A later {@link #findInfo} joins the lookup, or gets its result if it is done.
+     */
+    public void prefetch(Call call, boolean isIncoming) {
+        Preconditions.checkState(Looper.getMainLooper().getThread() == Thread.currentThread());
+
+        final int callId = call.getNumericId();
+        if (mInfoMap.get(callId) != null || mCallBacks.get(callId) != null) {
+            return;
+        }
+        Log.d(TAG, "Contact lookup. Prefetching for new call");
+        InCallMetrics.getInstance().increment(InCallMetrics.CONTACT_PREFETCHES);
+        startLookup(call, isIncoming, null);
+    }
+
+    /**
+     * Looks up the contact of a call which has no entry and no lookup in flight.
+     *
+     * @param callback The function to call back when the call is found. Can be null.
+     */
+    private void startLookup(Call call, boolean isIncoming, ContactInfoCacheCallback callback) {
+        final int callId = call.getNumericId();
+
+        // A previous call from the same number may already have found the contact.
+        final ContactCacheEntry numberEntry = mNumberCache.get(call);
+        if (numberEntry != null) {
+            InCallMetrics.getInstance().increment(InCallMetrics.CONTACT_NUMBER_CACHE_HITS);
+            Log.d(TAG, "Contact lookup. Number cache hit; lookup complete");
+            mInfoMap.put(callId, numberEntry);
+            if (callback != null) {
+                callback.onContactInfoComplete(call.getId(), numberEntry);
+            }
+            return;
+        }
+
         Log.d(TAG, "Contact lookup. In memory cache miss; searching provider.");
+        InCallMetrics.getInstance().increment(InCallMetrics.CONTACT_CACHE_MISSES);
         // New lookup
-        callBacks = Sets.newHashSet();
-        callBacks.add(callback);
+        final Set<ContactInfoCacheCallback> callBacks = Sets.newHashSet();
+        if (callback != null) {
+            callBacks.add(callback);
+        }
         mCallBacks.put(callId, callBacks);
+        mLookupStartNanos.put(callId, SystemClock.elapsedRealtimeNanos());
+        InCallTrace.beginContactLookup(call);
+
+        // Numbers which recently had no match skip the contacts query and the remote service.
+        if (mNumberCache.isKnownMiss(call)) {
+            InCallMetrics.getInstance().increment(InCallMetrics.CONTACT_NEGATIVE_CACHE_HITS);
+            Log.d(TAG, "Contact lookup. Known miss; skipping provider and remote lookups");
+            final CallerInfo callerInfo = CallerInfoUtils.buildCallerInfo(mContext, call);
+            if (!TextUtils.isEmpty(callerInfo.phoneNumber)) {
+                // Format the number as the contacts query does for a number with no match.
+                callerInfo.phoneNumber = PhoneNumberHelper.formatNumber(callerInfo.phoneNumber,
+                        null, TelephonyManagerUtils.getCurrentCountryIso(mContext,
+                                Locale.getDefault()));
+            }
+            if (isIncoming) {
+                startGeoLookup(call, callerInfo);
+            }
+            findInfoQueryComplete(call, callerInfo, isIncoming, false);
+            finishLookup(callId);
+            return;
+        }
+
+        // The contact saved on disk by a previous process is shown right away, and replaced by
+        // the result of the lookup below once it completes.
+        final ContactCacheEntry snapshotEntry = mNumberCache.getFromSnapshot(call);
+        if (snapshotEntry != null) {
+            InCallMetrics.getInstance().increment(InCallMetrics.CONTACT_SNAPSHOT_HITS);
+            Log.d(TAG, "Contact lookup. Snapshot hit; revalidating");
+            mInfoMap.put(callId, snapshotEntry);
+            if (callback != null) {
+                callback.onContactInfoComplete(call.getId(), snapshotEntry);
+            }
+        }
 
         /**
          * Performs a query for caller information.
@@ -143,13 +311,23 @@ public class ContactInfoCache implements ContactsAsyncHelper.OnImageLoadComplete
          */
         final CallerInfo callerInfo = CallerInfoUtils.getCallerInfoForCall(
                 mContext, call, new FindInfoCallback(isIncoming));
+        if (isIncoming) {
+            startGeoLookup(call, callerInfo);
+        }
 
-        findInfoQueryComplete(call, callerInfo, isIncoming, false);
+        // The immediate data only has the number, don't let it replace the snapshot entry.
+        if (snapshotEntry == null) {
+            findInfoQueryComplete(call, callerInfo, isIncoming, false);
+        }
     }
 
     private void findInfoQueryComplete(Call call, CallerInfo callerInfo, boolean isIncoming,
             boolean didLocalLookup) {
-        final String callId = call.getId();
+        final int callId = call.getNumericId();
+        if (didLocalLookup && mCallBacks.get(callId) == null) {
+            Log.d(TAG, "Contact lookup cancelled, dropping local result");
+            return;
+        }
         int presentationMode = call.getNumberPresentation();
         if (callerInfo.contactExists || callerInfo.isEmergencyNumber() ||
                 callerInfo.isVoiceMailNumber()) {
@@ -161,13 +339,23 @@ public class ContactInfoCache implements ContactsAsyncHelper.OnImageLoadComplete
         // 1) This is NOT the asynchronous local lookup (IOW, this is the first pass)
         // 2) The local lookup was done and the contact exists
         // 3) The existing cached entry is empty (no name).
+        // 4) The existing cached entry was read from the snapshot and may be out of date.
         if (!didLocalLookup || callerInfo.contactExists ||
-                (cacheEntry != null && TextUtils.isEmpty(cacheEntry.name))) {
-            cacheEntry = buildEntry(mContext, callId, callerInfo, presentationMode, isIncoming);
+                (cacheEntry != null && TextUtils.isEmpty(cacheEntry.name)) ||
+                (cacheEntry != null && cacheEntry.isFromSnapshot)) {
+            final ContactCacheEntry oldEntry = cacheEntry;
+            cacheEntry = buildEntry(mContext, callerInfo, presentationMode, isIncoming);
+            // Keep showing the photo from the snapshot until the current one is loaded.
+            if (cacheEntry.photo == null && cacheEntry.displayPhotoUri != null
+                    && oldEntry != null && oldEntry.isFromSnapshot) {
+                cacheEntry.photo = oldEntry.photo;
+                cacheEntry.hasContactPhoto = oldEntry.hasContactPhoto;
+            }
+            applyGeoDescription(callId, cacheEntry);
             mInfoMap.put(callId, cacheEntry);
         }
 
-        sendInfoNotifications(callId, cacheEntry);
+        sendInfoNotifications(call, cacheEntry);
 
         if (didLocalLookup) {
             // Before issuing a request for more data from other services, We only check that the
@@ -175,7 +363,8 @@ public class ContactInfoCache implements ContactsAsyncHelper.OnImageLoadComplete
             // has a name because we allow overriding cnap data with data from other services.
             if (!callerInfo.contactExists && mPhoneNumberService != null) {
                 Log.d(TAG, "Contact lookup. Local contacts miss, checking remote");
-                final PhoneNumberServiceListener listener = new PhoneNumberServiceListener(callId);
+                final PhoneNumberServiceListener listener = new PhoneNumberServiceListener(call,
+                        canRememberMiss(callerInfo));
                 mPhoneNumberService.getPhoneNumberInfo(cacheEntry.number, listener, listener,
                         isIncoming);
             } else if (cacheEntry.displayPhotoUri != null) {
@@ -183,35 +372,48 @@ public class ContactInfoCache implements ContactsAsyncHelper.OnImageLoadComplete
                 // Load the image with a callback to update the image state.
                 // When the load is finished, onImageLoadComplete() will be called.
                 ContactsAsyncHelper.startObtainPhotoAsync(TOKEN_UPDATE_PHOTO_FOR_CALL_STATE,
-                        mContext, cacheEntry.displayPhotoUri, ContactInfoCache.this, callId);
+                        mContext, cacheEntry.displayPhotoUri, ContactInfoCache.this, call);
             } else {
                 if (callerInfo.contactExists) {
                     Log.d(TAG, "Contact lookup done. Local contact found, no image.");
+                    onLookupComplete(call, cacheEntry);
                 } else {
                     Log.d(TAG, "Contact lookup done. Local contact not found and"
                             + " no remote lookup service available.");
+                    onLookupMissed(call, canRememberMiss(callerInfo));
                 }
-                clearCallbacks(callId);
             }
         }
     }
 
     class PhoneNumberServiceListener implements PhoneNumberService.NumberLookupListener,
                                      PhoneNumberService.ImageLookupListener {
-        private final String mCallId;
-
-        PhoneNumberServiceListener(String callId) {
-            mCallId = callId;
+        private final Call mCall;
+        private final int mCallId;
+        private final boolean mRememberMiss;
+        private final long mStartNanos = SystemClock.elapsedRealtimeNanos();
+
+        PhoneNumberServiceListener(Call call, boolean rememberMiss) {
+            mCall = call;
+            mCallId = call.getNumericId();
+            mRememberMiss = rememberMiss;
         }
 
         @Override
         public void onPhoneNumberInfoComplete(
                 final PhoneNumberService.PhoneNumberInfo info) {
+            InCallMetrics.getInstance().recordDuration(InCallMetrics.CONTACT_LOOKUP_REMOTE,
+                    mStartNanos);
+            if (mCallBacks.get(mCallId) == null) {
+                Log.d(TAG, "Contact lookup cancelled, dropping remote result");
+                return;
+            }
+
             // If we got a miss, this is the end of the lookup pipeline,
             // so clear the callbacks and return.
             if (info == null) {
                 Log.d(TAG, "Contact lookup done. Remote contact not found.");
-                clearCallbacks(mCallId);
+                onLookupMissed(mCall, mRememberMiss);
                 return;
             }
 
@@ -244,18 +446,18 @@ public class ContactInfoCache implements ContactsAsyncHelper.OnImageLoadComplete
 
             // Add the contact info to the cache.
             mInfoMap.put(mCallId, entry);
-            sendInfoNotifications(mCallId, entry);
+            sendInfoNotifications(mCall, entry);
 
             // If there is no image then we should not expect another callback.
             if (info.getImageUrl() == null) {
                 // We're done, so clear callbacks
-                clearCallbacks(mCallId);
+                onLookupComplete(mCall, entry);
             }
         }
 
         @Override
         public void onImageFetchComplete(Bitmap bitmap) {
-            onImageLoadComplete(TOKEN_UPDATE_PHOTO_FOR_CALL_STATE, null, bitmap, mCallId);
+            onImageLoadComplete(TOKEN_UPDATE_PHOTO_FOR_CALL_STATE, null, bitmap, mCall);
         }
     }
 
@@ -269,7 +471,12 @@ public class ContactInfoCache implements ContactsAsyncHelper.OnImageLoadComplete
         // TODO: may be nice to update the image view again once the newer one
         // is available on contacts database.
 
-        final String callId = (String) cookie;
+        final Call call = (Call) cookie;
+        final int callId = call.getNumericId();
+        if (mCallBacks.get(callId) == null) {
+            Log.d(this, "Contact lookup cancelled, dropping image");
+            return;
+        }
         final ContactCacheEntry entry = mInfoMap.get(callId);
 
         if (entry == null) {
@@ -283,16 +490,20 @@ public class ContactInfoCache implements ContactsAsyncHelper.OnImageLoadComplete
         if (photo != null) {
             Log.v(this, "direct drawable: ", photo);
             entry.photo = photo;
+            entry.photoIcon = photoIcon;
+            entry.hasContactPhoto = true;
         } else if (photoIcon != null) {
             Log.v(this, "photo icon: ", photoIcon);
             entry.photo = new BitmapDrawable(mContext.getResources(), photoIcon);
+            entry.hasContactPhoto = true;
         } else {
             Log.v(this, "unknown photo");
             entry.photo = null;
+            entry.hasContactPhoto = false;
         }
 
-        sendImageNotifications(callId, entry);
-        clearCallbacks(callId);
+        sendImageNotifications(call, entry);
+        onLookupComplete(call, entry);
     }
 
     /**
@@ -301,10 +512,21 @@ public class ContactInfoCache implements ContactsAsyncHelper.OnImageLoadComplete
     public void clearCache() {
         mInfoMap.clear();
         mCallBacks.clear();
+        mPendingGeoLookups.clear();
+        mGeoLookupSerials.clear();
+        mGeoDescriptions.clear();
+        mLookupStartNanos.clear();
+        InCallTrace.endAllContactLookups();
+        if (mGeoThread != null) {
+            mGeoThread.quitSafely();
+            mGeoThread = null;
+            mGeoHandler = null;
+        }
+        mNumberCache.release();
     }
 
-    private ContactCacheEntry buildEntry(Context context, String callId,
-            CallerInfo info, int presentation, boolean isIncoming) {
+    private ContactCacheEntry buildEntry(Context context, CallerInfo info, int presentation,
+            boolean isIncoming) {
         // The actual strings we're going to display onscreen:
         Drawable photo = null;
 
@@ -317,6 +539,7 @@ public class ContactInfoCache implements ContactsAsyncHelper.OnImageLoadComplete
         } else if (info.isCachedPhotoCurrent) {
             if (info.cachedPhoto != null) {
                 photo = info.cachedPhoto;
+                cce.hasContactPhoto = true;
             } else {
                 photo = context.getResources().getDrawable(R.drawable.img_no_image);
                 photo.setAutoMirrored(true);
@@ -458,26 +681,175 @@ public class ContactInfoCache implements ContactsAsyncHelper.OnImageLoadComplete
     /**
      * Sends the updated information to call the callbacks for the entry.
      */
-    private void sendInfoNotifications(String callId, ContactCacheEntry entry) {
-        final Set<ContactInfoCacheCallback> callBacks = mCallBacks.get(callId);
+    private void sendInfoNotifications(Call call, ContactCacheEntry entry) {
+        final Set<ContactInfoCacheCallback> callBacks = mCallBacks.get(call.getNumericId());
         if (callBacks != null) {
             for (ContactInfoCacheCallback callBack : callBacks) {
-                callBack.onContactInfoComplete(callId, entry);
+                callBack.onContactInfoComplete(call.getId(), entry);
             }
         }
     }
 
-    private void sendImageNotifications(String callId, ContactCacheEntry entry) {
-        final Set<ContactInfoCacheCallback> callBacks = mCallBacks.get(callId);
+    private void sendImageNotifications(Call call, ContactCacheEntry entry) {
+        final Set<ContactInfoCacheCallback> callBacks = mCallBacks.get(call.getNumericId());
         if (callBacks != null && entry.photo != null) {
             for (ContactInfoCacheCallback callBack : callBacks) {
-                callBack.onImageLoadComplete(callId, entry);
+                callBack.onImageLoadComplete(call.getId(), entry);
             }
         }
     }
 
-    private void clearCallbacks(String callId) {
+    /**
+     * Ends the lookup pipeline of a call whose caller was found in the contacts or by the remote
+     * lookup service. The entry is kept for later calls from the same number.
+     *
+     * @param entry The final entry for the call.
+     */
+    private void onLookupComplete(Call call, ContactCacheEntry entry) {
+        mNumberCache.put(call, entry);
+        finishLookup(call.getNumericId());
+    }
+
+    /**
+     * Ends the lookup pipeline of a call whose caller was found neither in the contacts nor by
+     * the remote lookup service.
+     *
+     * @param rememberMiss Whether to remember that the number has no match, so that the next
+     *        lookups for it skip the contacts provider and the remote lookup service.
+     */
+    private void onLookupMissed(Call call, boolean rememberMiss) {
+        if (rememberMiss) {
+            mNumberCache.putMiss(call);
+        }
+        finishLookup(call.getNumericId());
+    }
+
+    /**
+     * Emergency and voicemail numbers are resolved by the contacts query itself, so a miss for
+     * them must not be remembered.
+     */
+    private static boolean canRememberMiss(CallerInfo callerInfo) {
+        return !callerInfo.isEmergencyNumber() && !callerInfo.isVoiceMailNumber();
+    }
+
+    /**
+     * Ends the lookup pipeline of a call, once its geo stage is done too.
+     */
+    private void finishLookup(int callId) {
+        if (mPendingGeoLookups.indexOfKey(callId) >= 0) {
+            // Complete once the geo stage is done too.
+            mPendingGeoLookups.put(callId, true);
+            return;
+        }
+        clearCallbacks(callId);
+    }
+
+    /**
+     * Cancels the lookup in flight for a call, if any. Results which arrive afterwards are
+     * dropped. The entry built so far is kept, so that the UI of the disconnected call is still
+     * served from the cache instead of starting the lookup over.
+     */
+    public void cancelLookup(Call call) {
+        final int callId = call.getNumericId();
+        if (mCallBacks.get(callId) == null) {
+            return;
+        }
+        Log.d(TAG, "Contact lookup cancelled for call " + callId);
+        InCallMetrics.getInstance().increment(InCallMetrics.CONTACT_LOOKUPS_CANCELLED);
+        mLookupStartNanos.delete(callId);
+        clearCallbacks(callId);
+    }
+
+    private void clearCallbacks(int callId) {
         mCallBacks.remove(callId);
+        mPendingGeoLookups.delete(callId);
+        mGeoLookupSerials.delete(callId);
+        mGeoDescriptions.remove(callId);
+        final int index = mLookupStartNanos.indexOfKey(callId);
+        if (index >= 0) {
+            InCallMetrics.getInstance().recordDuration(InCallMetrics.CONTACT_LOOKUP_TOTAL,
+                    mLookupStartNanos.valueAt(index));
+            mLookupStartNanos.removeAt(index);
+        }
+        InCallTrace.endContactLookup(callId);
+    }
+
+    /**
+     * Starts the geo stage of a lookup, which geocodes the number on a worker thread.
+     */
+    private void startGeoLookup(final Call call, CallerInfo callerInfo) {
+        final String number = callerInfo.phoneNumber;
+        if (callerInfo.numberPresentation != TelecomManager.PRESENTATION_ALLOWED
+                || TextUtils.isEmpty(number) || PhoneNumberHelper.isUriNumber(number)) {
+            return;
+        }
+        final int callId = call.getNumericId();
+        mPendingGeoLookups.put(callId, false);
+        final int serial = mNextGeoLookupSerial++;
+        mGeoLookupSerials.put(callId, serial);
+        final long startNanos = SystemClock.elapsedRealtimeNanos();
+        if (mGeoHandler == null) {
+            mGeoThread = new HandlerThread("ContactGeoWorker");
+            mGeoThread.start();
+            mGeoHandler = new Handler(mGeoThread.getLooper());
+        }
+        mGeoHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                final String description = CallerInfo.getGeoDescription(mContext, number);
+                InCallMetrics.getInstance().recordDuration(InCallMetrics.CONTACT_LOOKUP_GEO,
+                        startNanos);
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onGeoLookupComplete(call, serial, description);
+                    }
+                });
+            }
+        });
+    }
+
+    private void onGeoLookupComplete(Call call, int serial, String description) {
+        final int callId = call.getNumericId();
+        final int index = mPendingGeoLookups.indexOfKey(callId);
+        if (index < 0 || mGeoLookupSerials.get(callId, -1) != serial) {
+            Log.d(TAG, "Contact lookup cancelled, dropping geo description");
+            return;
+        }
+        final boolean isLastStage = mPendingGeoLookups.valueAt(index);
+        mPendingGeoLookups.removeAt(index);
+        mGeoLookupSerials.delete(callId);
+        Log.d(this, "Contact lookup. Geo description: ", description);
+
+        if (description != null) {
+            mGeoDescriptions.put(callId, description);
+            final ContactCacheEntry entry = mInfoMap.get(callId);
+            if (entry != null && applyGeoDescription(callId, entry)) {
+                sendInfoNotifications(call, entry);
+            }
+        }
+        if (isLastStage) {
+            clearCallbacks(callId);
+        }
+    }
+
+    /**
+     * Fills the location of an entry which only shows the number with the result of the geo
+     * stage, if it is available. Nothing is applied once the lookup of the call was cancelled.
+     *
+     * @return true if the entry was changed.
+     */
+    private boolean applyGeoDescription(int callId, ContactCacheEntry entry) {
+        if (mCallBacks.get(callId) == null) {
+            return false;
+        }
+        final String description = mGeoDescriptions.get(callId);
+        if (description == null || entry.location != null || !TextUtils.isEmpty(entry.name)
+                || TextUtils.isEmpty(entry.number)) {
+            return false;
+        }
+        entry.location = description;
+        return true;
     }
 
     /**
@@ -507,6 +879,8 @@ public class ContactInfoCache implements ContactsAsyncHelper.OnImageLoadComplete
         public String location;
         public String label;
         public Drawable photo;
+        /** Copy of {@link #photo} scaled for the notification large icon, if already made. */
+        public Bitmap photoIcon;
         public boolean isSipCall;
         /** This will be used for the "view" notification. */
         public Uri contactUri;
@@ -514,6 +888,43 @@ public class ContactInfoCache implements ContactsAsyncHelper.OnImageLoadComplete
         public Uri displayPhotoUri;
         public Uri lookupUri; // Sent to NotificationMananger
         public String lookupKey;
+        /**
+         * Whether the entry was read from the {@link ContactSnapshotStore} and may be out of
+         * date.
+         */
+        public boolean isFromSnapshot;
+        /**
+         * Whether {@link #photo} is the photo of the contact or of the lookup service rather than
+         * a placeholder.
+         */
+        public boolean hasContactPhoto;
+
+        /**
+         * @return A copy of the entry which can be changed without affecting this one. The photo
+         *         is a new drawable sharing the bitmap of this one, so that it can be shown in
+         *         another view.
+         */
+        public ContactCacheEntry copy() {
+            final ContactCacheEntry entry = new ContactCacheEntry();
+            entry.name = name;
+            entry.number = number;
+            entry.location = location;
+            entry.label = label;
+            if (photo != null && photo.getConstantState() != null) {
+                entry.photo = photo.getConstantState().newDrawable();
+            } else {
+                entry.photo = photo;
+            }
+            entry.photoIcon = photoIcon;
+            entry.isSipCall = isSipCall;
+            entry.contactUri = contactUri;
+            entry.displayPhotoUri = displayPhotoUri;
+            entry.lookupUri = lookupUri;
+            entry.lookupKey = lookupKey;
+            entry.isFromSnapshot = isFromSnapshot;
+            entry.hasContactPhoto = hasContactPhoto;
+            return entry;
+        }
 
         @Override
         public String toString() {
@@ -526,6 +937,8 @@ public class ContactInfoCache implements ContactsAsyncHelper.OnImageLoadComplete
                     .add("isSipCall", isSipCall)
                     .add("contactUri", contactUri)
                     .add("displayPhotoUri", displayPhotoUri)
+                    .add("isFromSnapshot", isFromSnapshot)
+                    .add("hasContactPhoto", hasContactPhoto)
                     .toString();
         }
     }
@@ -0,0 +1,255 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.incallui;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.provider.ContactsContract;
+import android.telecom.TelecomManager;
+import android.telephony.PhoneNumberUtils;
+import android.text.TextUtils;
+import android.util.LruCache;
+
+import com.android.contacts.common.util.PhoneNumberHelper;
+import com.android.contacts.common.util.TelephonyManagerUtils;
+import com.android.incallui.ContactInfoCache.ContactCacheEntry;
+
+/**
+ * Contact entries of the most recent callers, keyed by phone number, so that a caller who calls
+ * again is shown without querying the contacts provider, the remote lookup service or decoding the
+ * photo again. Unlike the per-call entries of {@link ContactInfoCache}, these survive the end of
+ * the calls.
+ *
+ * Numbers are normalized to E.164 where possible so that the different formats the network uses
+ * for the same caller share an entry. The cache is bounded by the size of the photos it holds,
+ * entries expire after {@link #TTL_MILLIS}, and the whole cache is dropped shortly after the
+ * contacts change.
+ *
+ * Numbers for which neither the contacts nor the remote lookup service had a match are
+ * remembered too, for {@link #MISS_TTL_MILLIS}, so that unknown callers who call repeatedly do not
+ * pay for the full lookup every time. The contacts provider change which drops the cache covers
+ * a contact being added for such a number.
+ *
+ * The entries are also saved to a {@link ContactSnapshotStore}, from which callers of previous
+ * processes can be shown while their contact is looked up again. The snapshot is left alone when
+ * the contacts change, since its entries are always looked up again before they are trusted.
+ *
+ * This class is only used from the UI thread.
+ */
+public class ContactNumberCache {
+
+    /** Budget for the entries, mostly their photos, in bytes. */
+    private static final int MAX_SIZE_BYTES = 2 * 1024 * 1024;
+    private static final long TTL_MILLIS = 30 * 60 * 1000;
+    private static final int MAX_MISSES = 64;
+    private static final long MISS_TTL_MILLIS = 6 * 60 * 60 * 1000;
+    /**
+     * Delay before the cache is dropped after a change to the contacts, so that a burst of
+     * writes, as made by a sync, only drops it once.
+     */
+    private static final long CONTACTS_CHANGED_DELAY_MILLIS = 1000;
+
+    private final Context mContext;
+    private final ContactSnapshotStore mSnapshotStore;
+    private final LruCache<String, TimedEntry> mEntries =
+            new LruCache<String, TimedEntry>(MAX_SIZE_BYTES) {
+                @Override
+                protected int sizeOf(String key, TimedEntry value) {
+                    return value.sizeBytes;
+                }
+            };
+    /** Numbers without a match, with the time of the lookup which missed. */
+    private final LruCache<String, Long> mMisses = new LruCache<String, Long>(MAX_MISSES);
+
+    /** The last number normalized by {@link #getKey}, and its key. */
+    private String mLastNumber;
+    private String mLastKey;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    private final Runnable mClearRunnable = new Runnable() {
+        @Override
+        public void run() {
+            Log.d(ContactNumberCache.this, "Contacts changed, clearing cache");
+            mEntries.evictAll();
+            mMisses.evictAll();
+        }
+    };
+
+    private final ContentObserver mContactsObserver = new ContentObserver(mHandler) {
+        @Override
+        public void onChange(boolean selfChange) {
+            if (selfChange) {
+                return;
+            }
+            mHandler.removeCallbacks(mClearRunnable);
+            mHandler.postDelayed(mClearRunnable, CONTACTS_CHANGED_DELAY_MILLIS);
+        }
+    };
+
+    public ContactNumberCache(Context context) {
+        mContext = context;
+        mSnapshotStore = new ContactSnapshotStore(context);
+        mContext.getContentResolver().registerContentObserver(
+                ContactsContract.Contacts.CONTENT_URI, true, mContactsObserver);
+    }
+
+    /**
+     * @return A copy of the cached entry for the number of the call, which the call may change,
+     *         or null if there is none or if it has expired.
+     */
+    public ContactCacheEntry get(Call call) {
+        final String key = getKey(call);
+        if (key == null) {
+            return null;
+        }
+        final TimedEntry timedEntry = mEntries.get(key);
+        if (timedEntry == null) {
+            return null;
+        }
+        if (SystemClock.elapsedRealtime() - timedEntry.timestampMillis > TTL_MILLIS) {
+            mEntries.remove(key);
+            return null;
+        }
+        return timedEntry.entry.copy();
+    }
+
+    /**
+     * Returns the entry saved on disk for the number of the call by a previous process. The
+     * entry may be out of date and is only returned once.
+     *
+     * @return The entry, or null if there is none.
+     */
+    public ContactCacheEntry getFromSnapshot(Call call) {
+        final String key = getKey(call);
+        return key == null ? null : mSnapshotStore.take(key);
+    }
+
+    /**
+     * Caches a copy of the complete contact entry found for the number of the call, so that later
+     * changes to the entry of the call do not reach other calls.
+     */
+    public void put(Call call, ContactCacheEntry entry) {
+        final String key = getKey(call);
+        if (key != null) {
+            mEntries.put(key, new TimedEntry(entry.copy(), SystemClock.elapsedRealtime()));
+            mMisses.remove(key);
+            mSnapshotStore.put(key, entry);
+        }
+    }
+
+    /**
+     * @return true if a recent lookup for the number of the call found no match.
+     */
+    public boolean isKnownMiss(Call call) {
+        final String key = getKey(call);
+        if (key == null) {
+            return false;
+        }
+        final Long timestampMillis = mMisses.get(key);
+        if (timestampMillis == null) {
+            return false;
+        }
+        if (SystemClock.elapsedRealtime() - timestampMillis > MISS_TTL_MILLIS) {
+            mMisses.remove(key);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Remembers that the lookup for the number of the call found no match.
+     */
+    public void putMiss(Call call) {
+        final String key = getKey(call);
+        if (key != null) {
+            mMisses.put(key, SystemClock.elapsedRealtime());
+        }
+    }
+
+    /**
+     * Stops the worker thread of the snapshot store until it is needed again. The cached entries
+     * are kept.
+     */
+    public void release() {
+        mSnapshotStore.release();
+    }
+
+    /**
+     * @return The size of the cached entries, in bytes.
+     */
+    public int sizeBytes() {
+        return mEntries.size();
+    }
+
+    /**
+     * @return The normalized number of the call, or null if the number is not shown to the user
+     *         and so can not be used to identify the caller.
+     */
+    private String getKey(Call call) {
+        final String number = call.getNumber();
+        if (TextUtils.isEmpty(number)
+                || call.getNumberPresentation() != TelecomManager.PRESENTATION_ALLOWED) {
+            return null;
+        }
+        if (PhoneNumberHelper.isUriNumber(number)) {
+            return number;
+        }
+        // A lookup asks for the same number several times in a row.
+        if (number.equals(mLastNumber)) {
+            return mLastKey;
+        }
+        final String countryIso = TelephonyManagerUtils.getCurrentCountryIso(mContext,
+                mContext.getResources().getConfiguration().locale);
+        final String e164 = PhoneNumberUtils.formatNumberToE164(number, countryIso);
+        mLastNumber = number;
+        mLastKey = e164 != null ? e164 : PhoneNumberUtils.normalizeNumber(number);
+        return mLastKey;
+    }
+
+    private static final class TimedEntry {
+        final ContactCacheEntry entry;
+        final long timestampMillis;
+        /**
+         * Size of the entry when it was cached. The entry may still change, but the cache needs
+         * the size it accounted for when the entry is removed.
+         */
+        final int sizeBytes;
+
+        TimedEntry(ContactCacheEntry entry, long timestampMillis) {
+            this.entry = entry;
+            this.timestampMillis = timestampMillis;
+            int size = 1;
+            if (entry.photo instanceof BitmapDrawable) {
+                size += getByteCount(((BitmapDrawable) entry.photo).getBitmap());
+            }
+            if (entry.photoIcon != null) {
+                size += getByteCount(entry.photoIcon);
+            }
+            sizeBytes = size;
+        }
+
+        private static int getByteCount(Bitmap bitmap) {
+            return bitmap == null ? 0 : bitmap.getByteCount();
+        }
+    }
+}
@@ -0,0 +1,429 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.incallui;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.drawable.BitmapDrawable;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+import android.util.AtomicFile;
+
+import com.android.incallui.ContactInfoCache.ContactCacheEntry;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * On-disk copy of the contacts found for the most recent callers, so that the in-call UI can show
+ * the name and photo of a caller right away after its process has been killed between calls.
+ *
+ * The snapshot is a single small file holding, for each normalized number, the fields of its
+ * {@link ContactCacheEntry} and a downscaled copy of the photo. It starts with a magic number, a
+ * format version and a CRC32 of the records; a file which does not match is discarded. The file
+ * is read once when the store is created and rewritten shortly after each change, all on a worker
+ * thread. The thread is quit by {@link #release()} and started again when the store is next
+ * changed.
+ *
+ * Entries read from the snapshot may be out of date, since contacts can change while the process
+ * is dead: they are handed out once, flagged with {@link ContactCacheEntry#isFromSnapshot}, and
+ * the caller is expected to look the contact up again.
+ */
+public class ContactSnapshotStore {
+
+    private static final String FILE_NAME = "contact_snapshot";
+    private static final int MAGIC = 0x49434353;
+    private static final int VERSION = 1;
+    /** Size of the magic number, version and checksum preceding the records. */
+    private static final int HEADER_SIZE = 16;
+
+    private static final int MAX_RECORDS = 32;
+    private static final long TTL_MILLIS = 7 * 24 * 60 * 60 * 1000L;
+    private static final long SAVE_DELAY_MILLIS = 1000;
+    /** Longer edge of the photos kept in the snapshot, in pixels. */
+    private static final int PHOTO_SIZE = 192;
+    private static final int PHOTO_JPEG_QUALITY = 85;
+
+    private static final int EVENT_LOAD = 1;
+    private static final int EVENT_PUT = 2;
+    private static final int EVENT_SAVE = 3;
+    private static final int EVENT_RELEASE = 4;
+
+    private final Context mContext;
+    private final AtomicFile mFile;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    /** Null while the worker thread is not running. Only accessed on the main thread. */
+    private Handler mWorkerHandler;
+
+    /** Entries loaded from disk and not handed out yet. Only accessed on the main thread. */
+    private final HashMap<String, ContactCacheEntry> mLoadedEntries = new HashMap<>();
+    /** Whether the entries read from disk have reached {@link #mLoadedEntries}. */
+    private boolean mIsLoaded = false;
+    /**
+     * Numbers saved before the load completed, whose entries read from disk are out of date.
+     * Only accessed on the main thread.
+     */
+    private final HashSet<String> mKeysPutBeforeLoad = new HashSet<>();
+
+    /**
+     * Records to save, least recently used first. Only accessed on the worker thread, holding its
+     * lock since a new worker thread may start before the released one is done.
+     */
+    private final LinkedHashMap<String, Record> mRecords =
+            new LinkedHashMap<String, Record>(MAX_RECORDS, 0.75f, true);
+
+    public ContactSnapshotStore(Context context) {
+        mContext = context;
+        mFile = new AtomicFile(new File(context.getCacheDir(), FILE_NAME));
+        getWorkerHandler().sendEmptyMessage(EVENT_LOAD);
+    }
+
+    /**
+     * Removes and returns the entry loaded from disk for a number.
+     *
+     * @param key The normalized number.
+     * @return The entry, or null if there is none or if the snapshot is still being read.
+     */
+    public ContactCacheEntry take(String key) {
+        return mLoadedEntries.remove(key);
+    }
+
+    /**
+     * Saves the entry found for a number.
+     *
+     * @param key The normalized number.
+     */
+    public void put(String key, ContactCacheEntry entry) {
+        mLoadedEntries.remove(key);
+        if (!mIsLoaded) {
+            mKeysPutBeforeLoad.add(key);
+        }
+        final Record record = new Record(key, entry, System.currentTimeMillis());
+        getWorkerHandler().obtainMessage(EVENT_PUT, record).sendToTarget();
+    }
+
+    /**
+     * Writes any pending change to disk and quits the worker thread. The entries are kept, and
+     * the thread is started again by the next {@link #put}. The thread is kept until the load
+     * is complete, so that no change can be overwritten by the records read from disk.
+     */
+    public void release() {
+        if (mWorkerHandler != null && mIsLoaded) {
+            mWorkerHandler.sendEmptyMessage(EVENT_RELEASE);
+            mWorkerHandler = null;
+        }
+    }
+
+    private Handler getWorkerHandler() {
+        if (mWorkerHandler == null) {
+            final HandlerThread thread = new HandlerThread("ContactSnapshotWorker");
+            thread.start();
+            mWorkerHandler = new WorkerHandler(thread.getLooper());
+        }
+        return mWorkerHandler;
+    }
+
+    private void onLoadComplete(HashMap<String, ContactCacheEntry> entries) {
+        for (String key : mKeysPutBeforeLoad) {
+            entries.remove(key);
+        }
+        mKeysPutBeforeLoad.clear();
+        mLoadedEntries.putAll(entries);
+        mIsLoaded = true;
+    }
+
+    private class WorkerHandler extends Handler {
+        public WorkerHandler(Looper looper) {
+            super(looper);
+        }
+
+        @Override
+        public void handleMessage(Message msg) {
+            synchronized (mRecords) {
+                handleMessageLocked(msg);
+            }
+        }
+
+        private void handleMessageLocked(Message msg) {
+            switch (msg.what) {
+                case EVENT_LOAD:
+                    load();
+                    break;
+                case EVENT_PUT:
+                    final Record record = (Record) msg.obj;
+                    record.encodePhoto();
+                    mRecords.remove(record.key);
+                    mRecords.put(record.key, record);
+                    final Iterator<Record> iterator = mRecords.values().iterator();
+                    while (mRecords.size() > MAX_RECORDS) {
+                        iterator.next();
+                        iterator.remove();
+                    }
+                    removeMessages(EVENT_SAVE);
+                    sendEmptyMessageDelayed(EVENT_SAVE, SAVE_DELAY_MILLIS);
+                    break;
+                case EVENT_SAVE:
+                    save();
+                    break;
+                case EVENT_RELEASE:
+                    if (hasMessages(EVENT_SAVE)) {
+                        removeMessages(EVENT_SAVE);
+                        save();
+                    }
+                    getLooper().quitSafely();
+                    break;
+                default:
+            }
+        }
+
+        private void load() {
+            final byte[] data;
+            try {
+                data = mFile.readFully();
+            } catch (FileNotFoundException e) {
+                postLoadComplete(new HashMap<String, ContactCacheEntry>());
+                return;
+            } catch (IOException e) {
+                Log.e(ContactSnapshotStore.this, "Unable to read contact snapshot", e);
+                postLoadComplete(new HashMap<String, ContactCacheEntry>());
+                return;
+            }
+
+            try {
+                readRecords(data);
+            } catch (IOException e) {
+                Log.w(ContactSnapshotStore.this, "Discarding contact snapshot: " + e.getMessage());
+                mRecords.clear();
+                mFile.delete();
+                postLoadComplete(new HashMap<String, ContactCacheEntry>());
+                return;
+            }
+
+            final HashMap<String, ContactCacheEntry> entries = new HashMap<>();
+            for (Record record : mRecords.values()) {
+                entries.put(record.key, record.toEntry(mContext));
+            }
+            Log.d(ContactSnapshotStore.this, "Loaded contact snapshot: ", entries.size());
+            postLoadComplete(entries);
+        }
+
+        private void postLoadComplete(final HashMap<String, ContactCacheEntry> entries) {
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    onLoadComplete(entries);
+                }
+            });
+        }
+
+        private void readRecords(byte[] data) throws IOException {
+            final DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("unknown format");
+            }
+            final long checksum = in.readLong();
+            final CRC32 crc = new CRC32();
+            crc.update(data, HEADER_SIZE, data.length - HEADER_SIZE);
+            if (crc.getValue() != checksum) {
+                throw new IOException("checksum mismatch");
+            }
+
+            final long now = System.currentTimeMillis();
+            final int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                final Record record = Record.read(in);
+                if (now - record.timestampMillis < TTL_MILLIS) {
+                    mRecords.put(record.key, record);
+                }
+            }
+        }
+
+        private void save() {
+            final ByteArrayOutputStream records = new ByteArrayOutputStream();
+            FileOutputStream out = null;
+            try {
+                final DataOutputStream recordsOut = new DataOutputStream(records);
+                recordsOut.writeInt(mRecords.size());
+                for (Record record : mRecords.values()) {
+                    record.write(recordsOut);
+                }
+                recordsOut.flush();
+
+                final byte[] payload = records.toByteArray();
+                final CRC32 crc = new CRC32();
+                crc.update(payload);
+
+                out = mFile.startWrite();
+                final DataOutputStream fileOut = new DataOutputStream(out);
+                fileOut.writeInt(MAGIC);
+                fileOut.writeInt(VERSION);
+                fileOut.writeLong(crc.getValue());
+                fileOut.write(payload);
+                fileOut.flush();
+                mFile.finishWrite(out);
+            } catch (IOException e) {
+                Log.e(ContactSnapshotStore.this, "Unable to write contact snapshot", e);
+                if (out != null) {
+                    mFile.failWrite(out);
+                }
+            }
+        }
+    }
+
+    /**
+     * The saved fields of a {@link ContactCacheEntry}.
+     */
+    private static final class Record {
+        final String key;
+        final long timestampMillis;
+        String name;
+        String number;
+        String location;
+        String label;
+        boolean isSipCall;
+        String lookupUri;
+        String lookupKey;
+        /** The photo to encode on the worker thread, if any. */
+        Bitmap photo;
+        byte[] photoBytes;
+
+        Record(String key, long timestampMillis) {
+            this.key = key;
+            this.timestampMillis = timestampMillis;
+        }
+
+        Record(String key, ContactCacheEntry entry, long timestampMillis) {
+            this(key, timestampMillis);
+            name = entry.name;
+            number = entry.number;
+            location = entry.location;
+            label = entry.label;
+            isSipCall = entry.isSipCall;
+            lookupUri = entry.lookupUri == null ? null : entry.lookupUri.toString();
+            lookupKey = entry.lookupKey;
+            if (entry.hasContactPhoto && entry.photo instanceof BitmapDrawable) {
+                photo = ((BitmapDrawable) entry.photo).getBitmap();
+            }
+        }
+
+        /**
+         * Compresses a downscaled copy of the photo. Called on the worker thread.
+         */
+        void encodePhoto() {
+            if (photo == null) {
+                return;
+            }
+            Bitmap bitmap = photo;
+            photo = null;
+            final int longerEdge = Math.max(bitmap.getWidth(), bitmap.getHeight());
+            if (longerEdge > PHOTO_SIZE) {
+                final int width = Math.max(1, bitmap.getWidth() * PHOTO_SIZE / longerEdge);
+                final int height = Math.max(1, bitmap.getHeight() * PHOTO_SIZE / longerEdge);
+                bitmap = Bitmap.createScaledBitmap(bitmap, width, height, true);
+            }
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            if (bitmap.hasAlpha()) {
+                bitmap.compress(Bitmap.CompressFormat.PNG, 0, out);
+            } else {
+                bitmap.compress(Bitmap.CompressFormat.JPEG, PHOTO_JPEG_QUALITY, out);
+            }
+            photoBytes = out.toByteArray();
+        }
+
+        ContactCacheEntry toEntry(Context context) {
+            final ContactCacheEntry entry = new ContactCacheEntry();
+            entry.name = name;
+            entry.number = number;
+            entry.location = location;
+            entry.label = label;
+            entry.isSipCall = isSipCall;
+            entry.lookupUri = lookupUri == null ? null : Uri.parse(lookupUri);
+            entry.lookupKey = lookupKey;
+            if (photoBytes != null) {
+                final Bitmap bitmap =
+                        BitmapFactory.decodeByteArray(photoBytes, 0, photoBytes.length);
+                if (bitmap != null) {
+                    entry.photo = new BitmapDrawable(context.getResources(), bitmap);
+                    entry.hasContactPhoto = true;
+                }
+            }
+            entry.isFromSnapshot = true;
+            return entry;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeUTF(key);
+            out.writeLong(timestampMillis);
+            writeString(out, name);
+            writeString(out, number);
+            writeString(out, location);
+            writeString(out, label);
+            out.writeBoolean(isSipCall);
+            writeString(out, lookupUri);
+            writeString(out, lookupKey);
+            if (photoBytes == null) {
+                out.writeInt(-1);
+            } else {
+                out.writeInt(photoBytes.length);
+                out.write(photoBytes);
+            }
+        }
+
+        static Record read(DataInputStream in) throws IOException {
+            final Record record = new Record(in.readUTF(), in.readLong());
+            record.name = readString(in);
+            record.number = readString(in);
+            record.location = readString(in);
+            record.label = readString(in);
+            record.isSipCall = in.readBoolean();
+            record.lookupUri = readString(in);
+            record.lookupKey = readString(in);
+            final int photoLength = in.readInt();
+            if (photoLength >= 0) {
+                record.photoBytes = new byte[photoLength];
+                in.readFully(record.photoBytes);
+            }
+            return record;
+        }
+
+        private static void writeString(DataOutputStream out, String value) throws IOException {
+            out.writeBoolean(value != null);
+            if (value != null) {
+                out.writeUTF(value);
+            }
+        }
+
+        private static String readString(DataInputStream in) throws IOException {
+            return in.readBoolean() ? in.readUTF() : null;
+        }
+    }
+}
@@ -21,6 +21,7 @@ import android.content.ContentUris;
 import android.content.Context;
 import android.content.res.AssetFileDescriptor;
 import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.net.Uri;
@@ -28,6 +29,7 @@ import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.Message;
+import android.os.SystemClock;
 import android.provider.ContactsContract.Contacts;
 
 import java.io.IOException;
@@ -114,40 +116,22 @@ public class ContactsAsyncHelper {
 
             switch (msg.arg1) {
                 case EVENT_LOAD_IMAGE:
-                    InputStream inputStream = null;
-                    try {
-                        try {
-                            inputStream = args.context.getContentResolver()
-                                    .openInputStream(args.displayPhotoUri);
-                        } catch (Exception e) {
-                            Log.e(this, "Error opening photo input stream", e);
-                        }
-
-                        if (inputStream != null) {
-                            args.photo = Drawable.createFromStream(inputStream,
-                                    args.displayPhotoUri.toString());
-
-                            // This assumes Drawable coming from contact database is usually
-                            // BitmapDrawable and thus we can have (down)scaled version of it.
-                            args.photoIcon = getPhotoIconWhenAppropriate(args.context, args.photo);
+                    final long startNanos = SystemClock.elapsedRealtimeNanos();
+                    final Bitmap bitmap = decodePhoto(args.context, args.displayPhotoUri);
+                    if (bitmap != null) {
+                        args.photo = new BitmapDrawable(args.context.getResources(), bitmap);
+                        args.photoIcon = getPhotoIconWhenAppropriate(args.context, args.photo);
+                        InCallMetrics.getInstance().recordDuration(
+                                InCallMetrics.PHOTO_DECODE, startNanos);
 
-                            Log.d(ContactsAsyncHelper.this, "Loading image: " + msg.arg1 +
-                                    " token: " + msg.what + " image URI: " + args.displayPhotoUri);
-                        } else {
-                            args.photo = null;
-                            args.photoIcon = null;
-                            Log.d(ContactsAsyncHelper.this, "Problem with image: " + msg.arg1 +
-                                    " token: " + msg.what + " image URI: " + args.displayPhotoUri +
-                                    ", using default image.");
-                        }
-                    } finally {
-                        if (inputStream != null) {
-                            try {
-                                inputStream.close();
-                            } catch (IOException e) {
-                                Log.e(this, "Unable to close input stream.", e);
-                            }
-                        }
+                        Log.d(ContactsAsyncHelper.this, "Loading image: " + msg.arg1 +
+                                " token: " + msg.what + " image URI: " + args.displayPhotoUri);
+                    } else {
+                        args.photo = null;
+                        args.photoIcon = null;
+                        Log.d(ContactsAsyncHelper.this, "Problem with image: " + msg.arg1 +
+                                " token: " + msg.what + " image URI: " + args.displayPhotoUri +
+                                ", using default image.");
                     }
                     break;
                 default:
@@ -160,6 +144,55 @@ public class ContactsAsyncHelper {
             reply.sendToTarget();
         }
 
+        /**
+         * Decodes a contact photo at the smallest power of two subsampling which is still at
+         * least {@link R.dimen#call_card_photo_decode_size} on its shorter edge. The bounds are
+         * read first, so that a large display photo is never decoded in full. JPEG photos have
+         * no alpha and are decoded as RGB_565, which halves their size.
+         *
+         * @return The photo, or null if it could not be read.
+         */
+        private Bitmap decodePhoto(Context context, Uri displayPhotoUri) {
+            final BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            decodeStream(context, displayPhotoUri, options);
+            if (options.outWidth <= 0 || options.outHeight <= 0) {
+                return null;
+            }
+
+            final int targetSize = context.getResources()
+                    .getDimensionPixelSize(R.dimen.call_card_photo_decode_size);
+            final int shorterEdge = Math.min(options.outWidth, options.outHeight);
+            int sampleSize = 1;
+            while (shorterEdge / (sampleSize * 2) >= targetSize) {
+                sampleSize *= 2;
+            }
+            options.inSampleSize = sampleSize;
+            options.inPreferredConfig = "image/jpeg".equals(options.outMimeType)
+                    ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+            options.inJustDecodeBounds = false;
+            return decodeStream(context, displayPhotoUri, options);
+        }
+
+        private Bitmap decodeStream(Context context, Uri uri, BitmapFactory.Options options) {
+            InputStream inputStream = null;
+            try {
+                inputStream = context.getContentResolver().openInputStream(uri);
+                return BitmapFactory.decodeStream(inputStream, null, options);
+            } catch (Exception e) {
+                Log.e(this, "Error opening photo input stream", e);
+                return null;
+            } finally {
+                if (inputStream != null) {
+                    try {
+                        inputStream.close();
+                    } catch (IOException e) {
+                        Log.e(this, "Unable to close input stream.", e);
+                    }
+                }
+            }
+        }
+
         /**
          * Returns a Bitmap object suitable for {@link Notification}'s large icon. This might
          * return null when the given Drawable isn't BitmapDrawable, or if the system fails to
@@ -0,0 +1,273 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.incallui;
+
+import android.os.SystemClock;
+
+import com.android.incallui.InCallPresenter.InCallState;
+
+import java.io.PrintWriter;
+import java.util.Locale;
+
+/**
+ * Fixed-size history of call events, kept so that the sequence of state transitions and commands
+ * leading up to a problem can be reconstructed from a bug report. Events are stored as primitive
+ * fields in preallocated arrays; recording an event does not allocate. The oldest events are
+ * overwritten once the buffer is full.
+ *
+ * The history is printed by {@link InCallServiceImpl#dump}.
+ */
+public final class FlightRecorder {
+
+    /** A call changed state. arg1 is the old {@link Call.State}, arg2 the new one. */
+    public static final int EVENT_CALL_STATE = 1;
+    /** CallList notified listeners of a change. arg1 is the number of listeners. */
+    public static final int EVENT_CALL_LIST_CHANGE = 2;
+    /** CallList notified listeners of an incoming call. arg1 is the number of listeners. */
+    public static final int EVENT_CALL_LIST_INCOMING = 3;
+    /** CallList notified listeners of a disconnect. arg1 is the disconnect cause code. */
+    public static final int EVENT_CALL_LIST_DISCONNECT = 4;
+    /** InCallPresenter changed in-call state. arg1 and arg2 are the old and new ordinals. */
+    public static final int EVENT_IN_CALL_STATE = 5;
+    /** A command was sent to Telecom. arg1 is one of the COMMAND_* constants. */
+    public static final int EVENT_TELECOM_COMMAND = 6;
+    /**
+     * A callback was received from Telecom. arg1 is one of the CALLBACK_* constants, arg2 is
+     * callback specific: the new Telecom state for {@link #CALLBACK_STATE_CHANGED}, the number
+     * of calls for {@link #CALLBACK_CHILDREN_CHANGED} and
+     * {@link #CALLBACK_CONFERENCEABLE_CALLS_CHANGED}, the capabilities for
+     * {@link #CALLBACK_DETAILS_CHANGED}, 0 otherwise.
+     */
+    public static final int EVENT_TELECOM_CALLBACK = 7;
+
+    public static final int COMMAND_ANSWER = 1;
+    public static final int COMMAND_DEFLECT = 2;
+    public static final int COMMAND_REJECT = 3;
+    public static final int COMMAND_DISCONNECT = 4;
+    public static final int COMMAND_HOLD = 5;
+    public static final int COMMAND_UNHOLD = 6;
+    public static final int COMMAND_MUTE = 7;
+    public static final int COMMAND_AUDIO_ROUTE = 8;
+    public static final int COMMAND_SWITCH_SUB = 9;
+    public static final int COMMAND_SEPARATE = 10;
+    public static final int COMMAND_MERGE = 11;
+    public static final int COMMAND_SWAP = 12;
+    public static final int COMMAND_POST_DIAL_CONTINUE = 13;
+    public static final int COMMAND_ACCOUNT_SELECTED = 14;
+
+    public static final int CALLBACK_CALL_ADDED = 1;
+    public static final int CALLBACK_CALL_REMOVED = 2;
+    public static final int CALLBACK_STATE_CHANGED = 3;
+    public static final int CALLBACK_PARENT_CHANGED = 4;
+    public static final int CALLBACK_CHILDREN_CHANGED = 5;
+    public static final int CALLBACK_DETAILS_CHANGED = 6;
+    public static final int CALLBACK_CANNED_TEXT_RESPONSES_LOADED = 7;
+    public static final int CALLBACK_POST_DIAL_WAIT = 8;
+    public static final int CALLBACK_VIDEO_CALL_CHANGED = 9;
+    public static final int CALLBACK_CALL_DESTROYED = 10;
+    public static final int CALLBACK_CONFERENCEABLE_CALLS_CHANGED = 11;
+
+    /** Call id recorded for events which are not about a single call. */
+    public static final int NO_CALL = -1;
+
+    private static final int CAPACITY = 256;
+
+    private static FlightRecorder sInstance;
+
+    private final long[] mTimestampsNanos = new long[CAPACITY];
+    private final int[] mEvents = new int[CAPACITY];
+    private final int[] mCallIds = new int[CAPACITY];
+    private final int[] mArgs1 = new int[CAPACITY];
+    private final int[] mArgs2 = new int[CAPACITY];
+
+    /** Index at which the next event is written. */
+    private int mNext = 0;
+    /** Total number of events recorded, including overwritten ones. */
+    private long mCount = 0;
+
+    public static synchronized FlightRecorder getInstance() {
+        if (sInstance == null) {
+            sInstance = new FlightRecorder();
+        }
+        return sInstance;
+    }
+
+    private FlightRecorder() {
+    }
+
+    /**
+     * Records an event.
+     *
+     * @param event One of the EVENT_* constants.
+     * @param callId The numeric id of the call, see {@link Call#getNumericId()}, or
+     *     {@link #NO_CALL}.
+     * @param arg1 First event specific argument.
+     * @param arg2 Second event specific argument.
+     */
+    public synchronized void record(int event, int callId, int arg1, int arg2) {
+        mTimestampsNanos[mNext] = SystemClock.elapsedRealtimeNanos();
+        mEvents[mNext] = event;
+        mCallIds[mNext] = callId;
+        mArgs1[mNext] = arg1;
+        mArgs2[mNext] = arg2;
+        mNext = (mNext + 1) % CAPACITY;
+        mCount++;
+    }
+
+    public void recordCallState(Call call, int oldState, int newState) {
+        record(EVENT_CALL_STATE, call.getNumericId(), oldState, newState);
+    }
+
+    public void recordInCallState(InCallState oldState, InCallState newState) {
+        record(EVENT_IN_CALL_STATE, NO_CALL, oldState.ordinal(), newState.ordinal());
+    }
+
+    public void recordCommand(int command, Call call) {
+        record(EVENT_TELECOM_COMMAND, call == null ? NO_CALL : call.getNumericId(), command, 0);
+    }
+
+    public void recordCallback(Call call, int callback, int arg) {
+        record(EVENT_TELECOM_CALLBACK, call.getNumericId(), callback, arg);
+    }
+
+    /**
+     * Prints the recorded events, oldest first, with their elapsed realtime and the time
+     * since the previous event.
+     */
+    public synchronized void dump(PrintWriter pw) {
+        final int size = (int) Math.min(mCount, CAPACITY);
+        pw.println("FlightRecorder: " + size + " of " + mCount + " events");
+        long previous = 0;
+        for (int i = 0; i < size; i++) {
+            final int index = (mNext - size + i + CAPACITY) % CAPACITY;
+            final long timestamp = mTimestampsNanos[index];
+            final StringBuilder sb = new StringBuilder();
+            sb.append("  ").append(formatMillis(timestamp));
+            if (i > 0) {
+                sb.append(" (+").append(formatMillis(timestamp - previous)).append(')');
+            }
+            sb.append(' ');
+            if (mCallIds[index] != NO_CALL) {
+                sb.append("call ").append(mCallIds[index]).append(' ');
+            }
+            appendEvent(sb, mEvents[index], mArgs1[index], mArgs2[index]);
+            pw.println(sb.toString());
+            previous = timestamp;
+        }
+    }
+
+    private static void appendEvent(StringBuilder sb, int event, int arg1, int arg2) {
+        switch (event) {
+            case EVENT_CALL_STATE:
+                sb.append("state ").append(Call.State.toString(arg1))
+                        .append(" -> ").append(Call.State.toString(arg2));
+                break;
+            case EVENT_CALL_LIST_CHANGE:
+                sb.append("onCallListChange listeners=").append(arg1);
+                break;
+            case EVENT_CALL_LIST_INCOMING:
+                sb.append("onIncomingCall listeners=").append(arg1);
+                break;
+            case EVENT_CALL_LIST_DISCONNECT:
+                sb.append("onDisconnect cause=").append(arg1);
+                break;
+            case EVENT_IN_CALL_STATE:
+                sb.append("InCallState ").append(InCallState.values()[arg1])
+                        .append(" -> ").append(InCallState.values()[arg2]);
+                break;
+            case EVENT_TELECOM_COMMAND:
+                sb.append("command ").append(commandToString(arg1));
+                break;
+            case EVENT_TELECOM_CALLBACK:
+                sb.append("callback ").append(callbackToString(arg1)).append(' ').append(arg2);
+                break;
+            default:
+                sb.append("event ").append(event).append(' ').append(arg1).append(' ')
+                        .append(arg2);
+                break;
+        }
+    }
+
+    private static String commandToString(int command) {
+        switch (command) {
+            case COMMAND_ANSWER:
+                return "ANSWER";
+            case COMMAND_DEFLECT:
+                return "DEFLECT";
+            case COMMAND_REJECT:
+                return "REJECT";
+            case COMMAND_DISCONNECT:
+                return "DISCONNECT";
+            case COMMAND_HOLD:
+                return "HOLD";
+            case COMMAND_UNHOLD:
+                return "UNHOLD";
+            case COMMAND_MUTE:
+                return "MUTE";
+            case COMMAND_AUDIO_ROUTE:
+                return "AUDIO_ROUTE";
+            case COMMAND_SWITCH_SUB:
+                return "SWITCH_SUB";
+            case COMMAND_SEPARATE:
+                return "SEPARATE";
+            case COMMAND_MERGE:
+                return "MERGE";
+            case COMMAND_SWAP:
+                return "SWAP";
+            case COMMAND_POST_DIAL_CONTINUE:
+                return "POST_DIAL_CONTINUE";
+            case COMMAND_ACCOUNT_SELECTED:
+                return "ACCOUNT_SELECTED";
+            default:
+                return "UNKNOWN(" + command + ")";
+        }
+    }
+
+    private static String callbackToString(int callback) {
+        switch (callback) {
+            case CALLBACK_CALL_ADDED:
+                return "onCallAdded";
+            case CALLBACK_CALL_REMOVED:
+                return "onCallRemoved";
+            case CALLBACK_STATE_CHANGED:
+                return "onStateChanged";
+            case CALLBACK_PARENT_CHANGED:
+                return "onParentChanged";
+            case CALLBACK_CHILDREN_CHANGED:
+                return "onChildrenChanged";
+            case CALLBACK_DETAILS_CHANGED:
+                return "onDetailsChanged";
+            case CALLBACK_CANNED_TEXT_RESPONSES_LOADED:
+                return "onCannedTextResponsesLoaded";
+            case CALLBACK_POST_DIAL_WAIT:
+                return "onPostDialWait";
+            case CALLBACK_VIDEO_CALL_CHANGED:
+                return "onVideoCallChanged";
+            case CALLBACK_CALL_DESTROYED:
+                return "onCallDestroyed";
+            case CALLBACK_CONFERENCEABLE_CALLS_CHANGED:
+                return "onConferenceableCallsChanged";
+            default:
+                return "UNKNOWN(" + callback + ")";
+        }
+    }
+
+    private static String formatMillis(long nanos) {
+        final long micros = nanos / 1000;
+        return String.format(Locale.US, "%d.%03dms", micros / 1000, micros % 1000);
+    }
+}
@@ -35,6 +35,7 @@ import android.content.res.TypedArray;
 import android.graphics.Point;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Trace;
 import android.telecom.DisconnectCause;
 import android.telecom.PhoneAccount;
 import android.telecom.PhoneAccountHandle;
@@ -125,6 +126,7 @@ public class InCallActivity extends Activity {
 
     @Override
     protected void onCreate(Bundle icicle) {
+        Trace.beginSection("InCallActivity.onCreate");
         Log.d(this, "onCreate()...  this = " + this);
 
         super.onCreate(icicle);
@@ -201,6 +203,7 @@ public class InCallActivity extends Activity {
         intentFilter.addAction(ACTION_SUPP_SERVICE_FAILURE);
         registerReceiver(mReceiver, intentFilter);
         Log.d(this, "onCreate(): exit");
+        Trace.endSection();
     }
 
     @Override
@@ -234,6 +237,8 @@ public class InCallActivity extends Activity {
 
         mIsForegroundActivity = true;
         InCallPresenter.getInstance().onUiShowing(true);
+        CallLatencyTracker.getInstance().onMilestone(CallList.getInstance().getIncomingCall(),
+                CallLatencyTracker.MILESTONE_INCOMING_ACTIVITY_RESUMED);
 
         if (mShowDialpadRequested) {
             mCallButtonFragment.displayDialpad(true /* show */,
@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.incallui;
+
+import android.os.SystemClock;
+
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Registry of counters, gauges and duration histograms describing the internals of the in-call
+ * UI, so that performance data can be pulled from any device with
+ * {@code adb shell dumpsys activity service com.android.incallui/.InCallServiceImpl}.
+ *
+ * Counters and histograms are created on first use. Gauges are read when the registry is
+ * dumped. Metrics can be recorded from any thread.
+ */
+public final class InCallMetrics {
+
+    /** Telecom callbacks received for any call. */
+    public static final String TELECOM_CALLBACKS = "telecom.callbacks";
+    /** Updates applied by CallList. */
+    public static final String CALL_LIST_UPDATES = "call_list.updates";
+    public static final String CALL_LIST_INCOMING = "call_list.incoming";
+    public static final String CALL_LIST_DISCONNECTS = "call_list.disconnects";
+    /** Time taken to notify all the CallList listeners of a change. */
+    public static final String CALL_LIST_DISPATCH = "call_list.dispatch";
+    public static final String CONTACT_CACHE_HITS = "contact_cache.hits";
+    public static final String CONTACT_CACHE_MISSES = "contact_cache.misses";
+    /** Lookups answered by the cross-call cache of {@link ContactNumberCache}. */
+    public static final String CONTACT_NUMBER_CACHE_HITS = "contact_cache.number_hits";
+    /** Lookups which skipped the local and remote stages for a number known to have no match. */
+    public static final String CONTACT_NEGATIVE_CACHE_HITS = "contact_cache.negative_hits";
+    /** Lookups started by {@link CallList} when a call is added, before any UI asks. */
+    public static final String CONTACT_PREFETCHES = "contact_cache.prefetches";
+    /** Lookups which showed an entry saved by {@link ContactSnapshotStore} while revalidating. */
+    public static final String CONTACT_SNAPSHOT_HITS = "contact_cache.snapshot_hits";
+    /** Duration of the stages of a contact lookup, and of the whole lookup. */
+    public static final String CONTACT_LOOKUP_LOCAL = "contact_lookup.local";
+    public static final String CONTACT_LOOKUP_GEO = "contact_lookup.geo";
+    public static final String CONTACT_LOOKUP_REMOTE = "contact_lookup.remote";
+    public static final String CONTACT_LOOKUP_TOTAL = "contact_lookup.total";
+    /** Lookups cancelled because their call disconnected. */
+    public static final String CONTACT_LOOKUPS_CANCELLED = "contact_lookup.cancelled";
+    /** Time taken to decode a contact photo and scale its notification icon. */
+    public static final String PHOTO_DECODE = "contacts_async.photo_decode";
+    /** Notifications built and posted because their content changed. */
+    public static final String NOTIFICATION_REBUILDS = "notification.rebuilds";
+    /** Notification updates skipped because nothing changed. */
+    public static final String NOTIFICATION_UNCHANGED = "notification.unchanged";
+    public static final String VIDEO_STATE_CHANGES = "video_call.state_changes";
+    public static final String VIDEO_CALL_UPDATES = "video_call.updates";
+
+    /**
+     * Reads the current value of a gauge.
+     */
+    public interface Gauge {
+        public long getValue();
+    }
+
+    /** Upper bounds, in milliseconds, of the histogram buckets. The last bucket is open. */
+    private static final long[] BUCKET_BOUNDS_MS = {1, 2, 4, 8, 16, 32, 64, 128, 256, 512, 1024};
+
+    private static InCallMetrics sInstance;
+
+    private final long mStartTimeMillis = SystemClock.elapsedRealtime();
+    private final TreeMap<String, long[]> mCounters = new TreeMap<>();
+    private final TreeMap<String, Gauge> mGauges = new TreeMap<>();
+    private final TreeMap<String, Histogram> mHistograms = new TreeMap<>();
+
+    public static synchronized InCallMetrics getInstance() {
+        if (sInstance == null) {
+            sInstance = new InCallMetrics();
+        }
+        return sInstance;
+    }
+
+    private InCallMetrics() {
+    }
+
+    public void increment(String counter) {
+        add(counter, 1);
+    }
+
+    public synchronized void add(String counter, long delta) {
+        long[] value = mCounters.get(counter);
+        if (value == null) {
+            value = new long[1];
+            mCounters.put(counter, value);
+        }
+        value[0] += delta;
+    }
+
+    public synchronized long getCount(String counter) {
+        final long[] value = mCounters.get(counter);
+        return value == null ? 0 : value[0];
+    }
+
+    /**
+     * Registers a gauge, replacing any gauge previously registered under the same name.
+     */
+    public synchronized void registerGauge(String name, Gauge gauge) {
+        mGauges.put(name, gauge);
+    }
+
+    /**
+     * Records the time elapsed since the given start time into a histogram.
+     *
+     * @param histogram The name of the histogram.
+     * @param startNanos The start time, from {@link SystemClock#elapsedRealtimeNanos()}.
+     */
+    public void recordDuration(String histogram, long startNanos) {
+        recordValue(histogram, SystemClock.elapsedRealtimeNanos() - startNanos);
+    }
+
+    private synchronized void recordValue(String name, long nanos) {
+        Histogram histogram = mHistograms.get(name);
+        if (histogram == null) {
+            histogram = new Histogram();
+            mHistograms.put(name, histogram);
+        }
+        histogram.record(nanos);
+    }
+
+    public synchronized void dump(PrintWriter pw) {
+        final long elapsedMillis = SystemClock.elapsedRealtime() - mStartTimeMillis;
+        pw.println("InCallMetrics: " + elapsedMillis / 1000 + "s since start");
+        pw.println("  Counters (total, per second):");
+        for (Map.Entry<String, long[]> entry : mCounters.entrySet()) {
+            final long count = entry.getValue()[0];
+            pw.println(String.format(Locale.US, "    %s: %d, %.3f/s", entry.getKey(), count,
+                    elapsedMillis == 0 ? 0f : count * 1000f / elapsedMillis));
+        }
+        pw.println("  Gauges:");
+        for (Map.Entry<String, Gauge> entry : mGauges.entrySet()) {
+            pw.println("    " + entry.getKey() + ": " + entry.getValue().getValue());
+        }
+        pw.println("  Histograms (ms):");
+        for (Map.Entry<String, Histogram> entry : mHistograms.entrySet()) {
+            pw.println("    " + entry.getKey() + ": " + entry.getValue());
+        }
+    }
+
+    private static final class Histogram {
+        private final long[] mBuckets = new long[BUCKET_BOUNDS_MS.length + 1];
+        private long mCount;
+        private long mSumNanos;
+        private long mMaxNanos;
+
+        void record(long nanos) {
+            final long millis = nanos / 1000000;
+            int bucket = 0;
+            while (bucket < BUCKET_BOUNDS_MS.length && millis >= BUCKET_BOUNDS_MS[bucket]) {
+                bucket++;
+            }
+            mBuckets[bucket]++;
+            mCount++;
+            mSumNanos += nanos;
+            mMaxNanos = Math.max(mMaxNanos, nanos);
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder sb = new StringBuilder();
+            sb.append(String.format(Locale.US, "count=%d mean=%.3f max=%.3f", mCount,
+                    mCount == 0 ? 0f : mSumNanos / 1e6f / mCount, mMaxNanos / 1e6f));
+            for (int i = 0; i < mBuckets.length; i++) {
+                if (mBuckets[i] == 0) {
+                    continue;
+                }
+                sb.append(i < BUCKET_BOUNDS_MS.length ? " <" + BUCKET_BOUNDS_MS[i]
+                        : " >=" + BUCKET_BOUNDS_MS[BUCKET_BOUNDS_MS.length - 1]);
+                sb.append(':').append(mBuckets[i]);
+            }
+            return sb.toString();
+        }
+    }
+}
@@ -37,6 +37,7 @@ import android.view.Window;
 import android.view.WindowManager;
 
 import android.os.PowerManager;
+import android.os.Trace;
 
 import com.google.common.base.Preconditions;
 import com.android.incalluibind.ObjectFactory;
@@ -368,6 +369,9 @@ public class InCallPresenter implements CallList.Listener, InCallPhoneListener {
 
         // Set the new state before announcing it to the world
         Log.i(this, "Phone switching state: " + oldState + " -> " + newState);
+        if (oldState != newState) {
+            FlightRecorder.getInstance().recordInCallState(oldState, newState);
+        }
         mInCallState = newState;
 
         // notify listeners of new state
@@ -397,6 +401,9 @@ public class InCallPresenter implements CallList.Listener, InCallPhoneListener {
         InCallState oldState = mInCallState;
 
         Log.i(this, "Phone switching state: " + oldState + " -> " + newState);
+        if (oldState != newState) {
+            FlightRecorder.getInstance().recordInCallState(oldState, newState);
+        }
         mInCallState = newState;
 
         for (IncomingCallListener listener : mIncomingCallListeners) {
@@ -435,28 +442,10 @@ public class InCallPresenter implements CallList.Listener, InCallPhoneListener {
      * Given the call list, return the state in which the in-call screen should be.
      */
     public static InCallState getPotentialStateFromCallList(CallList callList) {
-
-        InCallState newState = InCallState.NO_CALLS;
-
         if (callList == null) {
-            return newState;
-        }
-        if (callList.getIncomingCall() != null) {
-            newState = InCallState.INCOMING;
-        } else if (callList.getWaitingForAccountCall() != null) {
-            newState = InCallState.WAITING_FOR_ACCOUNT;
-        } else if (callList.getPendingOutgoingCall() != null) {
-            newState = InCallState.PENDING_OUTGOING;
-        } else if (callList.getOutgoingCall() != null) {
-            newState = InCallState.OUTGOING;
-        } else if (callList.getActiveCall() != null ||
-                callList.getBackgroundCall() != null ||
-                callList.getDisconnectedCall() != null ||
-                callList.getDisconnectingCall() != null) {
-            newState = InCallState.INCALL;
+            return InCallState.NO_CALLS;
         }
-
-        return newState;
+        return callList.getSnapshot().getInCallState();
     }
 
     public void addIncomingCallListener(IncomingCallListener listener) {
@@ -890,6 +879,15 @@ public class InCallPresenter implements CallList.Listener, InCallPhoneListener {
      * the UI needs to be started or finished depending on the new state and does it.
      */
     private InCallState startOrFinishUi(InCallState newState) {
+        Trace.beginSection("InCallPresenter.startOrFinishUi");
+        try {
+            return startOrFinishUiInternal(newState);
+        } finally {
+            Trace.endSection();
+        }
+    }
+
+    private InCallState startOrFinishUiInternal(InCallState newState) {
         Log.d(this, "startOrFinishUi: " + mInCallState + " -> " + newState);
 
         // TODO: Consider a proper state machine implementation
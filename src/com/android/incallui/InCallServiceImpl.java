@@ -19,6 +19,9 @@ package com.android.incallui;
 import android.telecom.InCallService;
 import android.telecom.Phone;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+
 /**
  * Used to receive updates about calls from the Telecomm component.  This service is bound to
  * Telecomm while there exist calls which potentially require UI. This includes ringing (incoming),
@@ -31,6 +34,8 @@ public class InCallServiceImpl extends InCallService {
     public void onPhoneCreated(Phone phone) {
         Log.v(this, "onPhoneCreated");
         CallList.getInstance().setPhone(phone);
+        CallList.getInstance().setContactInfoCache(
+                ContactInfoCache.getInstance(getApplicationContext()));
         AudioModeProvider.getInstance().setPhone(phone);
         TelecomAdapter.getInstance().setPhone(phone);
         InCallPresenter.getInstance().setPhone(phone);
@@ -46,10 +51,18 @@ public class InCallServiceImpl extends InCallService {
         Log.v(this, "onPhoneDestroyed");
         // Tear down the InCall system
         CallList.getInstance().clearPhone();
+        CallList.getInstance().setContactInfoCache(null);
         AudioModeProvider.getInstance().clearPhone();
         TelecomAdapter.getInstance().clearPhone();
         TelecomAdapter.getInstance().setContext(null);
         CallList.getInstance().clearOnDisconnect();
         InCallPresenter.getInstance().tearDown();
     }
+
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        FlightRecorder.getInstance().dump(pw);
+        InCallMetrics.getInstance().dump(pw);
+        CallLatencyTracker.getInstance().dump(pw);
+    }
 }
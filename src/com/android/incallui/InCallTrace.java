@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.incallui;
+
+import android.os.Trace;
+import android.util.SparseBooleanArray;
+
+/**
+ * Async trace slices for the incoming call path. Each slice uses the numeric id of its call as
+ * cookie, so every call gets its own track in a systrace or Perfetto capture:
+ *
+ * <ul>
+ * <li>{@link #SLICE_INCOMING_CALL}: from {@link CallList#onIncoming} to the first draw of the
+ * call card after it.</li>
+ * <li>{@link #SLICE_CONTACT_LOOKUP}: from the start of a {@link ContactInfoCache} lookup to the
+ * end of its pipeline.</li>
+ * </ul>
+ *
+ * Synchronous sections are traced in place with {@link Trace#beginSection}.
+ *
+ * This class is only used from the UI thread.
+ */
+public final class InCallTrace {
+
+    public static final String SLICE_INCOMING_CALL = "InCall:incomingCall";
+    public static final String SLICE_CONTACT_LOOKUP = "InCall:contactLookup";
+
+    /** Calls with an open {@link #SLICE_INCOMING_CALL} slice. */
+    private static final SparseBooleanArray sPendingIncomingCalls = new SparseBooleanArray();
+    /** Calls with an open {@link #SLICE_CONTACT_LOOKUP} slice. */
+    private static final SparseBooleanArray sPendingContactLookups = new SparseBooleanArray();
+
+    private InCallTrace() {
+    }
+
+    public static void beginIncomingCall(Call call) {
+        beginSlice(sPendingIncomingCalls, SLICE_INCOMING_CALL, call.getNumericId());
+    }
+
+    /**
+     * @return true if an incoming call is waiting for the call card to be drawn.
+     */
+    public static boolean hasPendingIncomingCall() {
+        return sPendingIncomingCalls.size() > 0;
+    }
+
+    /**
+     * Ends the incoming call slices once the call card has been drawn.
+     */
+    public static void onCallCardDrawn() {
+        for (int i = 0; i < sPendingIncomingCalls.size(); i++) {
+            Trace.asyncTraceEnd(Trace.TRACE_TAG_APP, SLICE_INCOMING_CALL,
+                    sPendingIncomingCalls.keyAt(i));
+        }
+        sPendingIncomingCalls.clear();
+    }
+
+    public static void beginContactLookup(Call call) {
+        beginSlice(sPendingContactLookups, SLICE_CONTACT_LOOKUP, call.getNumericId());
+    }
+
+    public static void endContactLookup(int callId) {
+        endSlice(sPendingContactLookups, SLICE_CONTACT_LOOKUP, callId);
+    }
+
+    /**
+     * Ends all the slices still open for a call which is going away.
+     */
+    public static void endCall(Call call) {
+        endSlice(sPendingIncomingCalls, SLICE_INCOMING_CALL, call.getNumericId());
+        endSlice(sPendingContactLookups, SLICE_CONTACT_LOOKUP, call.getNumericId());
+    }
+
+    /**
+     * Ends all open contact lookup slices, for when the contact cache is cleared.
+     */
+    public static void endAllContactLookups() {
+        for (int i = 0; i < sPendingContactLookups.size(); i++) {
+            Trace.asyncTraceEnd(Trace.TRACE_TAG_APP, SLICE_CONTACT_LOOKUP,
+                    sPendingContactLookups.keyAt(i));
+        }
+        sPendingContactLookups.clear();
+    }
+
+    private static void beginSlice(SparseBooleanArray pending, String name, int callId) {
+        if (pending.get(callId)) {
+            return;
+        }
+        pending.put(callId, true);
+        Trace.asyncTraceBegin(Trace.TRACE_TAG_APP, name, callId);
+    }
+
+    private static void endSlice(SparseBooleanArray pending, String name, int callId) {
+        final int index = pending.indexOfKey(callId);
+        if (index < 0) {
+            return;
+        }
+        pending.removeAt(index);
+        Trace.asyncTraceEnd(Trace.TRACE_TAG_APP, name, callId);
+    }
+}
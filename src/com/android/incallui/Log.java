@@ -19,12 +19,19 @@ package com.android.incallui;
 import android.net.Uri;
 import android.telecom.PhoneAccount;
 import android.telephony.PhoneNumberUtils;
+import android.util.LruCache;
 
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
 
 /**
  * Manages logging for the entire class.
+ *
+ * The debug and verbose overloads taking a format and arguments only build the message when the
+ * level is enabled, so call sites on hot paths should prefer them over concatenating the message
+ * themselves. Primitive arguments are still boxed before the level is checked, so call sites
+ * passing them on hot paths check {@link #DEBUG} or {@link #VERBOSE} first.
  */
 public class Log {
 
@@ -36,6 +43,31 @@ public class Log {
             android.util.Log.VERBOSE);
     public static final String TAG_DELIMETER = " - ";
 
+    /**
+     * Number of redacted values remembered by {@link #pii} and {@link #piiHandle}. Only a few
+     * numbers are involved in any call, but they are redacted on every log line.
+     */
+    private static final int PII_CACHE_SIZE = 32;
+
+    private static final LruCache<String, String> sPiiCache =
+            new LruCache<String, String>(PII_CACHE_SIZE);
+    private static final LruCache<String, String> sPiiHandleCache =
+            new LruCache<String, String>(PII_CACHE_SIZE);
+
+    private static final ThreadLocal<MessageDigest> sMessageDigest =
+            new ThreadLocal<MessageDigest>() {
+                @Override
+                protected MessageDigest initialValue() {
+                    try {
+                        return MessageDigest.getInstance("SHA-1");
+                    } catch (NoSuchAlgorithmException e) {
+                        return null;
+                    }
+                }
+            };
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
     public static void d(String tag, String msg) {
         if (DEBUG) {
             android.util.Log.d(TAG, delimit(tag) + msg);
@@ -54,6 +86,40 @@ public class Log {
         }
     }
 
+    public static void d(Object obj, String str1, int str2) {
+        if (DEBUG) {
+            android.util.Log.d(TAG, getPrefix(obj) + str1 + str2);
+        }
+    }
+
+    public static void d(Object obj, String str1, long str2) {
+        if (DEBUG) {
+            android.util.Log.d(TAG, getPrefix(obj) + str1 + str2);
+        }
+    }
+
+    public static void d(Object obj, String str1, boolean str2) {
+        if (DEBUG) {
+            android.util.Log.d(TAG, getPrefix(obj) + str1 + str2);
+        }
+    }
+
+    /**
+     * Logs a debug message built from a {@link String#format} format, only if debug logging
+     * is enabled.
+     */
+    public static void d(Object obj, String format, Object arg1, Object arg2) {
+        if (DEBUG) {
+            android.util.Log.d(TAG, getPrefix(obj) + format(format, arg1, arg2));
+        }
+    }
+
+    public static void d(Object obj, String format, Object arg1, Object arg2, Object arg3) {
+        if (DEBUG) {
+            android.util.Log.d(TAG, getPrefix(obj) + format(format, arg1, arg2, arg3));
+        }
+    }
+
     public static void v(Object obj, String msg) {
         if (VERBOSE) {
             android.util.Log.v(TAG, getPrefix(obj) + msg);
@@ -66,6 +132,34 @@ public class Log {
         }
     }
 
+    public static void v(Object obj, String str1, int str2) {
+        if (VERBOSE) {
+            android.util.Log.v(TAG, getPrefix(obj) + str1 + str2);
+        }
+    }
+
+    public static void v(Object obj, String str1, boolean str2) {
+        if (VERBOSE) {
+            android.util.Log.v(TAG, getPrefix(obj) + str1 + str2);
+        }
+    }
+
+    /**
+     * Logs a verbose message built from a {@link String#format} format, only if verbose
+     * logging is enabled.
+     */
+    public static void v(Object obj, String format, Object arg1, Object arg2) {
+        if (VERBOSE) {
+            android.util.Log.v(TAG, getPrefix(obj) + format(format, arg1, arg2));
+        }
+    }
+
+    public static void v(Object obj, String format, Object arg1, Object arg2, Object arg3) {
+        if (VERBOSE) {
+            android.util.Log.v(TAG, getPrefix(obj) + format(format, arg1, arg2, arg3));
+        }
+    }
+
     public static void e(String tag, String msg, Exception e) {
         android.util.Log.e(TAG, delimit(tag) + msg, e);
     }
@@ -114,54 +208,56 @@ public class Log {
             }
         }
 
-        String originalString = String.valueOf(pii);
-        StringBuilder stringBuilder = new StringBuilder(originalString.length());
-        for (char c : originalString.toCharArray()) {
-            if (PhoneNumberUtils.isDialable(c)) {
-                stringBuilder.append('*');
-            } else {
-                stringBuilder.append(c);
+        final String originalString = String.valueOf(pii);
+        String redacted = sPiiHandleCache.get(originalString);
+        if (redacted == null) {
+            final int length = originalString.length();
+            final char[] chars = new char[length];
+            for (int i = 0; i < length; i++) {
+                final char c = originalString.charAt(i);
+                chars[i] = PhoneNumberUtils.isDialable(c) ? '*' : c;
             }
+            redacted = new String(chars);
+            sPiiHandleCache.put(originalString, redacted);
         }
-        return stringBuilder.toString();
+        return redacted;
     }
 
     /**
      * Redact personally identifiable information for production users.
      * If we are running in verbose mode, return the original string, otherwise
-     * return a SHA-1 hash of the input string.
+     * return a SHA-1 hash of the input string. Recently redacted values are cached.
      */
     public static String pii(Object pii) {
         if (pii == null || VERBOSE) {
             return String.valueOf(pii);
         }
-        return "[" + secureHash(String.valueOf(pii).getBytes()) + "]";
+        final String originalString = String.valueOf(pii);
+        String redacted = sPiiCache.get(originalString);
+        if (redacted == null) {
+            redacted = "[" + secureHash(originalString.getBytes()) + "]";
+            sPiiCache.put(originalString, redacted);
+        }
+        return redacted;
     }
 
     private static String secureHash(byte[] input) {
-        MessageDigest messageDigest;
-        try {
-            messageDigest = MessageDigest.getInstance("SHA-1");
-        } catch (NoSuchAlgorithmException e) {
+        final MessageDigest messageDigest = sMessageDigest.get();
+        if (messageDigest == null) {
             return null;
         }
-        messageDigest.update(input);
-        byte[] result = messageDigest.digest();
-        return encodeHex(result);
+        // digest() resets the digest, so the instance can be reused by the next call.
+        return encodeHex(messageDigest.digest(input));
     }
 
     private static String encodeHex(byte[] bytes) {
-        StringBuffer hex = new StringBuffer(bytes.length * 2);
-
+        final char[] hex = new char[bytes.length * 2];
         for (int i = 0; i < bytes.length; i++) {
-            int byteIntValue = bytes[i] & 0xff;
-            if (byteIntValue < 0x10) {
-                hex.append("0");
-            }
-            hex.append(Integer.toString(byteIntValue, 16));
+            final int byteIntValue = bytes[i] & 0xff;
+            hex[i * 2] = HEX_DIGITS[byteIntValue >>> 4];
+            hex[i * 2 + 1] = HEX_DIGITS[byteIntValue & 0x0f];
         }
-
-        return hex.toString();
+        return new String(hex);
     }
 
     private static String getPrefix(Object obj) {
@@ -29,6 +29,7 @@ import android.graphics.BitmapFactory;
 import android.graphics.drawable.BitmapDrawable;
 import android.os.Handler;
 import android.os.Message;
+import android.os.Trace;
 import android.telecom.PhoneAccount;
 import android.telecom.PhoneCapabilities;
 import android.telecom.VideoProfile;
@@ -94,6 +95,27 @@ public class StatusBarNotifier implements InCallPresenter.InCallStateListener {
 
     private final Context mContext;
     private final ContactInfoCache mContactInfoCache;
+    /**
+     * Callback for the contact lookups of the notified calls. The same instance is used for
+     * every update of the notification, so that the cache holds it only once per call.
+     */
+    private final ContactInfoCacheCallback mContactInfoCallback = new ContactInfoCacheCallback() {
+        @Override
+        public void onContactInfoComplete(String callId, ContactCacheEntry entry) {
+            Call call = CallList.getInstance().getCallById(callId);
+            if (call != null) {
+                buildAndSendNotification(call, entry);
+            }
+        }
+
+        @Override
+        public void onImageLoadComplete(String callId, ContactCacheEntry entry) {
+            Call call = CallList.getInstance().getCallById(callId);
+            if (call != null) {
+                buildAndSendNotification(call, entry);
+            }
+        }
+    };
     private final NotificationManager mNotificationManager;
     private boolean mIsShowingNotification = false;
     private int mCallState = Call.State.INVALID;
@@ -101,6 +123,10 @@ public class StatusBarNotifier implements InCallPresenter.InCallStateListener {
     private int mSavedContent = 0;
     private Bitmap mSavedLargeIcon;
     private String mSavedContentTitle;
+    private long mLastCallListVersion = -1;
+    private InCallState mLastInCallState;
+    private boolean mLastIsShowingInCallUi;
+    private boolean mLastIsActivityPreviouslyStarted;
 
     public StatusBarNotifier(Context context, ContactInfoCache contactInfoCache) {
         Preconditions.checkNotNull(context);
@@ -118,6 +144,23 @@ public class StatusBarNotifier implements InCallPresenter.InCallStateListener {
     public void onStateChange(InCallState oldState, InCallState newState, CallList callList) {
         Log.d(this, "onStateChange");
 
+        // Nothing to do if neither the in-call state, the call list nor the state of the in-call
+        // UI changed since the last notification. Contact info updates go through
+        // updateNotification.
+        final long version = callList.getVersion();
+        final InCallPresenter presenter = InCallPresenter.getInstance();
+        final boolean isShowingInCallUi = presenter.isShowingInCallUi();
+        final boolean isActivityPreviouslyStarted = presenter.isActivityPreviouslyStarted();
+        if (version == mLastCallListVersion && newState == mLastInCallState
+                && isShowingInCallUi == mLastIsShowingInCallUi
+                && isActivityPreviouslyStarted == mLastIsActivityPreviouslyStarted) {
+            return;
+        }
+        mLastCallListVersion = version;
+        mLastInCallState = newState;
+        mLastIsShowingInCallUi = isShowingInCallUi;
+        mLastIsActivityPreviouslyStarted = isActivityPreviouslyStarted;
+
         updateNotification(newState, callList);
     }
 
@@ -242,30 +285,23 @@ public class StatusBarNotifier implements InCallPresenter.InCallStateListener {
         // This callback will always get called immediately and synchronously with whatever data
         // it has available, and may make a subsequent call later (same thread) if it had to
         // call into the contacts provider for more data.
-        mContactInfoCache.findInfo(call, isIncoming, new ContactInfoCacheCallback() {
-            @Override
-            public void onContactInfoComplete(String callId, ContactCacheEntry entry) {
-                Call call = CallList.getInstance().getCallById(callId);
-                if (call != null) {
-                    buildAndSendNotification(call, entry);
-                }
-            }
-
-            @Override
-            public void onImageLoadComplete(String callId, ContactCacheEntry entry) {
-                Call call = CallList.getInstance().getCallById(callId);
-                if (call != null) {
-                    buildAndSendNotification(call, entry);
-                }
-            }
-        });
+        mContactInfoCache.findInfo(call, isIncoming, mContactInfoCallback);
     }
 
     /**
      * Sets up the main Ui for the notification
      */
     private void buildAndSendNotification(Call originalCall, ContactCacheEntry contactInfo) {
+        Trace.beginSection("StatusBarNotifier.buildAndSendNotification");
+        try {
+            buildAndSendNotificationInternal(originalCall, contactInfo);
+        } finally {
+            Trace.endSection();
+        }
+    }
 
+    private void buildAndSendNotificationInternal(Call originalCall,
+            ContactCacheEntry contactInfo) {
         // This can get called to update an existing notification after contact information has come
         // back. However, it can happen much later. Before we continue, we need to make sure that
         // the call being passed in is still the one we want to show in the notification.
@@ -286,8 +322,10 @@ public class StatusBarNotifier implements InCallPresenter.InCallStateListener {
         final String contentTitle = getContentTitle(contactInfo, isConference);
 
         if (!checkForChangeAndSaveData(iconResId, contentResId, largeIcon, contentTitle, state)) {
+            InCallMetrics.getInstance().increment(InCallMetrics.NOTIFICATION_UNCHANGED);
             return;
         }
+        InCallMetrics.getInstance().increment(InCallMetrics.NOTIFICATION_REBUILDS);
 
         /*
          * Nothing more to check...build and send it.
@@ -345,6 +383,10 @@ public class StatusBarNotifier implements InCallPresenter.InCallStateListener {
         Log.d(this, "Notifying IN_CALL_NOTIFICATION: " + notification);
         mNotificationManager.notify(IN_CALL_NOTIFICATION, notification);
         mIsShowingNotification = true;
+        if (state == Call.State.INCOMING || state == Call.State.CALL_WAITING) {
+            CallLatencyTracker.getInstance().onMilestone(call,
+                    CallLatencyTracker.MILESTONE_INCOMING_NOTIFICATION_POSTED);
+        }
     }
 
     static private boolean isMoreOptionRequired(Call call) {
@@ -449,7 +491,9 @@ public class StatusBarNotifier implements InCallPresenter.InCallStateListener {
             largeIcon = BitmapFactory.decodeResource(mContext.getResources(),
                     R.drawable.img_conference);
         }
-        if (contactInfo.photo != null && (contactInfo.photo instanceof BitmapDrawable)) {
+        if (contactInfo.photoIcon != null) {
+            largeIcon = contactInfo.photoIcon;
+        } else if (contactInfo.photo != null && (contactInfo.photo instanceof BitmapDrawable)) {
             largeIcon = ((BitmapDrawable) contactInfo.photo).getBitmap();
         }
 
@@ -458,7 +502,10 @@ public class StatusBarNotifier implements InCallPresenter.InCallStateListener {
                     android.R.dimen.notification_large_icon_height);
             final int width = (int) mContext.getResources().getDimension(
                     android.R.dimen.notification_large_icon_width);
-            largeIcon = Bitmap.createScaledBitmap(largeIcon, width, height, false);
+            // The icon made with the photo is usually the right size already.
+            if (largeIcon.getWidth() != width || largeIcon.getHeight() != height) {
+                largeIcon = Bitmap.createScaledBitmap(largeIcon, width, height, false);
+            }
         }
 
         return largeIcon;
@@ -524,15 +571,16 @@ public class StatusBarNotifier implements InCallPresenter.InCallStateListener {
         if (callList == null) {
             return null;
         }
-        Call call = callList.getIncomingCall();
+        final CallListSnapshot snapshot = callList.getSnapshot();
+        Call call = snapshot.getIncomingCall();
         if (call == null) {
-            call = callList.getOutgoingCall();
+            call = snapshot.getOutgoingCall();
         }
         if (call == null) {
-            call = callList.getVideoUpgradeRequestCall();
+            call = snapshot.getVideoUpgradeRequestCall();
         }
         if (call == null) {
-            call = callList.getActiveOrBackgroundCall();
+            call = snapshot.getActiveOrBackgroundCall();
         }
         return call;
     }
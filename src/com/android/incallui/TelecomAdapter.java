@@ -68,7 +68,13 @@ final class TelecomAdapter implements InCallPhoneListener {
         return call == null ? null : call.getTelecommCall();
     }
 
+    private void recordCommand(int command, String callId) {
+        FlightRecorder.getInstance().recordCommand(command,
+                callId == null ? null : CallList.getInstance().getCallById(callId));
+    }
+
     void answerCall(String callId, int videoState) {
+        recordCommand(FlightRecorder.COMMAND_ANSWER, callId);
         if (mPhone != null) {
             final android.telecom.Call call = getTelecommCallById(callId);
             if (call != null) {
@@ -82,6 +88,7 @@ final class TelecomAdapter implements InCallPhoneListener {
     }
 
     void deflectCall(String callId, String number) {
+        recordCommand(FlightRecorder.COMMAND_DEFLECT, callId);
         if (mPhone != null) {
             getTelecommCallById(callId).deflectCall(number);
         } else {
@@ -90,6 +97,7 @@ final class TelecomAdapter implements InCallPhoneListener {
     }
 
     void rejectCall(String callId, boolean rejectWithMessage, String message) {
+        recordCommand(FlightRecorder.COMMAND_REJECT, callId);
         if (mPhone != null) {
             final android.telecom.Call call = getTelecommCallById(callId);
             if (call != null) {
@@ -103,6 +111,7 @@ final class TelecomAdapter implements InCallPhoneListener {
     }
 
     void disconnectCall(String callId) {
+        recordCommand(FlightRecorder.COMMAND_DISCONNECT, callId);
         if (mPhone != null) {
             getTelecommCallById(callId).disconnect();
         } else {
@@ -111,6 +120,7 @@ final class TelecomAdapter implements InCallPhoneListener {
     }
 
     void holdCall(String callId) {
+        recordCommand(FlightRecorder.COMMAND_HOLD, callId);
         if (mPhone != null) {
             getTelecommCallById(callId).hold();
         } else {
@@ -119,6 +129,7 @@ final class TelecomAdapter implements InCallPhoneListener {
     }
 
     void unholdCall(String callId) {
+        recordCommand(FlightRecorder.COMMAND_UNHOLD, callId);
         if (mPhone != null) {
             getTelecommCallById(callId).unhold();
         } else {
@@ -127,6 +138,7 @@ final class TelecomAdapter implements InCallPhoneListener {
     }
 
     void mute(boolean shouldMute) {
+        recordCommand(FlightRecorder.COMMAND_MUTE, null);
         if (mPhone != null) {
             mPhone.setMuted(shouldMute);
         } else {
@@ -135,6 +147,7 @@ final class TelecomAdapter implements InCallPhoneListener {
     }
 
     void setAudioRoute(int route) {
+        recordCommand(FlightRecorder.COMMAND_AUDIO_ROUTE, null);
         if (mPhone != null) {
             mPhone.setAudioRoute(route);
         } else {
@@ -159,6 +172,7 @@ final class TelecomAdapter implements InCallPhoneListener {
     }
 
     void switchToOtherActiveSub(String subId, boolean retainLch) {
+        recordCommand(FlightRecorder.COMMAND_SWITCH_SUB, null);
         if (mPhone != null) {
             mPhone.switchToOtherActiveSub(subId, retainLch);
         } else {
@@ -167,6 +181,7 @@ final class TelecomAdapter implements InCallPhoneListener {
     }
 
     void separateCall(String callId) {
+        recordCommand(FlightRecorder.COMMAND_SEPARATE, callId);
         if (mPhone != null) {
             getTelecommCallById(callId).splitFromConference();
         } else {
@@ -175,6 +190,7 @@ final class TelecomAdapter implements InCallPhoneListener {
     }
 
     void merge(String callId) {
+        recordCommand(FlightRecorder.COMMAND_MERGE, callId);
         if (mPhone != null) {
             android.telecom.Call call = getTelecommCallById(callId);
             List<android.telecom.Call> conferenceable = call.getConferenceableCalls();
@@ -192,6 +208,7 @@ final class TelecomAdapter implements InCallPhoneListener {
     }
 
     void swap(String callId) {
+        recordCommand(FlightRecorder.COMMAND_SWAP, callId);
         if (mPhone != null) {
             android.telecom.Call call = getTelecommCallById(callId);
             int capabilities = call.getDetails().getCallCapabilities();
@@ -241,6 +258,7 @@ final class TelecomAdapter implements InCallPhoneListener {
     }
 
     void postDialContinue(String callId, boolean proceed) {
+        recordCommand(FlightRecorder.COMMAND_POST_DIAL_CONTINUE, callId);
         if (mPhone != null) {
             getTelecommCallById(callId).postDialContinue(proceed);
         } else {
@@ -250,6 +268,7 @@ final class TelecomAdapter implements InCallPhoneListener {
 
     void phoneAccountSelected(String callId, PhoneAccountHandle accountHandle,
             boolean setDefault) {
+        recordCommand(FlightRecorder.COMMAND_ACCOUNT_SELECTED, callId);
         if (mPhone != null) {
             getTelecommCallById(callId).phoneAccountSelected(accountHandle, setDefault);
         }  else {
@@ -386,6 +386,7 @@ public class VideoCallPresenter extends Presenter<VideoCallPresenter.VideoCallUi
     @Override
     public void onStateChange(InCallPresenter.InCallState oldState,
             InCallPresenter.InCallState newState, CallList callList) {
+        InCallMetrics.getInstance().increment(InCallMetrics.VIDEO_STATE_CHANGES);
         Log.d(this, "onStateChange oldState" + oldState + " newState=" + newState +
                 " isVideoMode=" + isVideoMode());
 
@@ -400,22 +401,23 @@ public class VideoCallPresenter extends Presenter<VideoCallPresenter.VideoCallUi
         }
 
         // Determine the primary active call).
+        final CallListSnapshot snapshot = callList.getSnapshot();
         Call primary = null;
         if (newState == InCallPresenter.InCallState.INCOMING) {
             // We don't want to replace active video call (primary call)
             // with a waiting call, since user may choose to ignore/decline the waiting call and
             // this should have no impact on current active video call, that is, we should not
             // change the camera or UI unless the waiting VT call becomes active.
-            primary = callList.getActiveCall();
+            primary = snapshot.getActiveCall();
             if (!CallUtils.isActiveVideoCall(primary)) {
-                primary = callList.getIncomingCall();
+                primary = snapshot.getIncomingCall();
             }
         } else if (newState == InCallPresenter.InCallState.OUTGOING) {
-            primary = callList.getOutgoingCall();
+            primary = snapshot.getOutgoingCall();
         } else if (newState == InCallPresenter.InCallState.PENDING_OUTGOING) {
-            primary = callList.getPendingOutgoingCall();
+            primary = snapshot.getPendingOutgoingCall();
         } else if (newState == InCallPresenter.InCallState.INCALL) {
-            primary = callList.getActiveCall();
+            primary = snapshot.getActiveCall();
         }
 
         final boolean primaryChanged = !Objects.equals(mPrimaryCall, primary);
@@ -560,6 +562,7 @@ public class VideoCallPresenter extends Presenter<VideoCallPresenter.VideoCallUi
     }
 
     private void updateVideoCall(Call call) {
+        InCallMetrics.getInstance().increment(InCallMetrics.VIDEO_CALL_UPDATES);
         checkForVideoCallChange(call);
         checkForVideoStateChange(call);
         checkForCallStateChange(call);